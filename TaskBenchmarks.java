@@ -0,0 +1,352 @@
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+// Benchmarks for the TaskManagementSystem hot paths over generated datasets.
+// Reports time and bytes allocated per operation after a warm-up phase.
+// Usage: java TaskBenchmarks [name-filter]
+public class TaskBenchmarks {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 10;
+
+    private static volatile Object sink;
+    private static String filter;
+
+    private interface Operation {
+        void run(int i) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        filter = args.length > 0 ? args[0] : "";
+
+        for (int depth : new int[] {1, 4, 16}) {
+            for (int width : new int[] {2, 8}) {
+                benchmarkFindTaskById(depth, width, 100);
+            }
+        }
+        for (int observers : new int[] {1, 100, 10000}) {
+            benchmarkNotifyObservers(observers);
+        }
+        benchmarkMoveToNextState(10000);
+        benchmarkClone();
+        for (int tasks : new int[] {1000, 100000}) {
+            benchmarkRender(4, 4, tasks);
+        }
+        benchmarkInstantiateTemplate(1000, 50);
+        for (int members : new int[] {100, 20000}) {
+            benchmarkAutoAssign(members, 100000);
+        }
+        benchmarkChangeFeed(10000);
+        for (int batchSize : new int[] {10, 5000}) {
+            benchmarkTransaction(100000, batchSize);
+        }
+        for (RenderFormat format : new RenderFormat[] {RenderFormat.CSV, RenderFormat.JSON_LINES}) {
+            benchmarkBulkIO(format, 100000);
+        }
+        for (boolean checkpoint : new boolean[] {false, true}) {
+            benchmarkRecover(100000, checkpoint);
+        }
+    }
+
+    private static void benchmarkFindTaskById(int depth, int width, int tasksPerProject) throws Exception {
+        Dataset data = Dataset.tree(depth, width, tasksPerProject);
+        List<String> ids = data.ids;
+        measure("findTaskById", "depth=" + depth + " width=" + width + " tasks=" + ids.size(), 10000,
+                i -> sink = data.tms.findTaskById(ids.get((int) ((i * 7919L) % ids.size()))));
+    }
+
+    private static void benchmarkNotifyObservers(int observerCount) throws Exception {
+        TaskManagementSystem tms = new TaskManagementSystem();
+        int[] calls = new int[1];
+        for (int i = 0; i < observerCount; i++) {
+            tms.addObserver(task -> calls[0]++);
+        }
+        Task task = Dataset.quietTask("TASK-1");
+        measure("notifyObservers", "observers=" + observerCount, Math.max(10, 1000000 / observerCount),
+                i -> tms.notifyObservers(task));
+        sink = calls[0];
+    }
+
+    private static void benchmarkMoveToNextState(int taskCount) throws Exception {
+        List<Task> tasks = new ArrayList<>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            tasks.add(Dataset.quietTask("TASK-" + i));
+        }
+        measure("moveToNextState", "tasks=" + taskCount, taskCount * 4, i -> {
+            Task task = tasks.get(i % taskCount);
+            if (task.getTaskState() == CompletedState.INSTANCE) {
+                task.setTaskState(AssignedState.INSTANCE);
+            } else {
+                task.moveToNextState();
+            }
+        });
+    }
+
+    private static void benchmarkClone() throws Exception {
+        Task template = Dataset.quietTask("TASK-1");
+        template.setAssignee("arth");
+        measure("Task.clone", "", 1000000, i -> sink = template.clone());
+    }
+
+    private static void benchmarkRender(int depth, int width, int taskCount) throws Exception {
+        Dataset data = Dataset.tree(depth, width, Math.max(1, taskCount / Dataset.projectCount(depth, width)));
+        Writer out = Writer.nullWriter();
+        measure("displayAllProjects", "depth=" + depth + " width=" + width + " tasks=" + data.ids.size(), 10,
+                i -> sink = data.tms.renderAllProjects(new TreeRenderer(out, RenderFormat.TEXT)));
+    }
+
+    // Each operation creates projects * occurrences tasks in a fresh system
+    private static void benchmarkInstantiateTemplate(int projectCount, int occurrences) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        Task template = Dataset.quietTask("TEMPLATE");
+        RecurrenceRule rule = RecurrenceRule.parse("Every Friday");
+        LocalDate from = LocalDate.of(2025, 1, 1);
+        try {
+            measure("instantiateTemplate", "projects=" + projectCount + " occurrences=" + occurrences, 1, i -> {
+                TaskManagementSystem tms = new TaskManagementSystem();
+                List<Project> projects = new ArrayList<>(projectCount);
+                for (int p = 0; p < projectCount; p++) {
+                    projects.add(tms.createProject("Team " + p));
+                }
+                sink = TemplateInstantiator.instantiate(tms, template, projects, occurrences, rule, from, executor);
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Each operation hands one task to the least loaded member; rounds reassign the same tasks
+    private static void benchmarkAutoAssign(int memberCount, int taskCount) throws Exception {
+        Dataset data = Dataset.tree(1, 1, taskCount);
+        for (int i = 0; i < memberCount; i++) {
+            data.tms.addTeamMember(Dataset.quietMember("member-" + i));
+        }
+        List<List<Task>> singles = new ArrayList<>(taskCount);
+        for (String id : data.ids) {
+            singles.add(Collections.singletonList(data.tms.findTaskById(id)));
+        }
+        measure("autoAssign", "members=" + memberCount + " tasks=" + taskCount, taskCount,
+                i -> data.tms.autoAssignAll(singles.get(i)));
+    }
+
+    // Transitions with a change feed attached, then catch-up reads of the whole feed as
+    // decoded events and as raw frames copied with transferTo
+    private static void benchmarkChangeFeed(int taskCount) throws Exception {
+        Path directory = Files.createTempDirectory("feed-bench");
+        Dataset data = Dataset.tree(1, 1, taskCount);
+        try (TaskChangeFeed feed = TaskChangeFeed.open(directory, false)) {
+            data.tms.setChangeFeed(feed);
+            List<Task> tasks = new ArrayList<>(taskCount);
+            for (String id : data.ids) {
+                tasks.add(data.tms.findTaskById(id));
+            }
+            measure("changeFeedAppend", "tasks=" + taskCount, taskCount * 4, i -> {
+                Task task = tasks.get(i % taskCount);
+                if (task.getTaskState() == CompletedState.INSTANCE) {
+                    task.setTaskState(AssignedState.INSTANCE);
+                } else {
+                    data.tms.moveTaskToNextState(task);
+                }
+            });
+            data.tms.setChangeFeed(null);
+            String events = "events=" + feed.getLastSequence();
+            measure("changeFeedRead", events, 1, i -> sink = feed.read(0, Integer.MAX_VALUE));
+            WritableByteChannel discard = Channels.newChannel(OutputStream.nullOutputStream());
+            measure("changeFeedTransferTo", events, 1, i -> sink = feed.transferTo(0, discard));
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    // Each operation moves batchSize tasks one state forward in a single transaction
+    private static void benchmarkTransaction(int taskCount, int batchSize) throws Exception {
+        Dataset data = Dataset.tree(1, 1, taskCount);
+        List<Task> tasks = new ArrayList<>(taskCount);
+        for (String id : data.ids) {
+            tasks.add(data.tms.findTaskById(id));
+        }
+        measure("commitTransaction", "tasks=" + taskCount + " batch=" + batchSize, taskCount / batchSize, i -> {
+            TaskTransaction transaction = data.tms.newTransaction();
+            for (Task task : tasks.subList(i * batchSize, (i + 1) * batchSize)) {
+                if (task.getTaskState() == CompletedState.INSTANCE) {
+                    task.setTaskState(AssignedState.INSTANCE);
+                }
+                transaction.moveToNextState(task);
+            }
+            sink = transaction.commit();
+        });
+    }
+
+    // Each operation exports the whole dataset, or imports it into a fresh system
+    private static void benchmarkBulkIO(RenderFormat format, int taskCount) throws Exception {
+        Dataset data = Dataset.tree(4, 4, Math.max(1, taskCount / Dataset.projectCount(4, 4)));
+        Path file = Files.createTempFile("bulk-bench", format == RenderFormat.CSV ? ".csv" : ".jsonl");
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            String params = format + " tasks=" + data.ids.size();
+            // The import reads this file even when the export benchmark is filtered out
+            TaskBulkIO.exportTasks(data.tms, file, format);
+            measure("bulkExport", params, 1, i -> sink = TaskBulkIO.exportTasks(data.tms, file, format));
+            measure("bulkImport", params, 1,
+                    i -> sink = TaskBulkIO.importTasks(new TaskManagementSystem(), file, format, executor, 4));
+        } finally {
+            executor.shutdown();
+            Files.delete(file);
+        }
+    }
+
+    // Startup time: each operation recovers the store into a fresh system, either by
+    // replaying the whole log or from a checkpoint followed by a short log tail
+    private static void benchmarkRecover(int taskCount, boolean checkpoint) throws Exception {
+        Path directory = Files.createTempDirectory("recover-bench");
+        try {
+            TaskManagementSystem tms = new TaskManagementSystem();
+            TaskStore store = TaskStore.open(directory, false);
+            store.recover(tms);
+            for (int i = 0; i < 100; i++) {
+                tms.addTeamMember(Dataset.quietMember("member-" + i));
+            }
+            Project root = tms.createProject("Root");
+            List<Task> tasks = new ArrayList<>(taskCount);
+            Project project = null;
+            for (int i = 0; i < taskCount; i++) {
+                if (i % 100 == 0) {
+                    project = new Project("Project " + i / 100);
+                    root.add(project);
+                }
+                Task task = Dataset.quietTask("TASK-" + i);
+                tasks.add(task);
+                project.add(new TaskItem(task));
+            }
+            if (checkpoint) {
+                store.snapshot(tms);
+            }
+            // The same tail of assignments either way
+            for (int i = 0; i < 1000; i++) {
+                tms.assignTask(tasks.get(i * (taskCount / 1000)), tms.getTeamMembers().get(i % 100));
+            }
+            store.close();
+            measure("recover", (checkpoint ? "checkpoint" : "log only") + " tasks=" + taskCount, 1, i -> {
+                try (TaskStore recovering = TaskStore.open(directory, false)) {
+                    TaskManagementSystem recovered = new TaskManagementSystem();
+                    recovering.recover(recovered);
+                    sink = recovered;
+                }
+            });
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static void measure(String name, String params, int opsPerRound, Operation operation) throws Exception {
+        if (!name.contains(filter)) {
+            return;
+        }
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            runRound(opsPerRound, operation);
+        }
+        long nanos = 0;
+        long bytes = 0;
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            long allocatedBefore = allocatedBytes();
+            nanos += runRound(opsPerRound, operation);
+            bytes += allocatedBytes() - allocatedBefore;
+        }
+        long ops = (long) opsPerRound * MEASURE_ROUNDS;
+        System.out.printf("%-20s %-36s %,14.1f ns/op %,12d B/op%n", name, params, (double) nanos / ops, bytes / ops);
+    }
+
+    private static long runRound(int ops, Operation operation) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            operation.run(i);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    // Generated project trees 'depth' levels deep with 'width' subprojects per level and
+    // the same number of tasks in every project
+    private static final class Dataset {
+        // Same transitions as the standard workflow, without console output
+        private static final TaskWorkflow QUIET = new TaskWorkflow(AssignedState.INSTANCE)
+            .addTransition(AssignedState.INSTANCE, InProgressState.INSTANCE)
+            .addTransition(InProgressState.INSTANCE, UnderReviewState.INSTANCE)
+            .addTransition(UnderReviewState.INSTANCE, CompletedState.INSTANCE);
+
+        static {
+            QUIET.setTransitionSink(TransitionSink.NONE);
+        }
+
+        final TaskManagementSystem tms = new TaskManagementSystem();
+        final List<String> ids = new ArrayList<>();
+
+        static Task quietTask(String id) {
+            return new Task(id, "Benchmark task", "Generated for benchmarks", "2025-01-01", QUIET);
+        }
+
+        static TeamMember quietMember(String name) {
+            return new TeamMember(name) {
+                @Override
+                public void update(Task task) {
+                }
+
+                @Override
+                public void updateBatch(List<Task> tasks) {
+                }
+            };
+        }
+
+        static int projectCount(int depth, int width) {
+            return 1 + (depth - 1) * width;
+        }
+
+        static Dataset tree(int depth, int width, int tasksPerProject) {
+            Dataset data = new Dataset();
+            Project root = data.tms.createProject("Root");
+            data.fill(root, depth - 1, width, tasksPerProject);
+            return data;
+        }
+
+        private void fill(Project project, int remainingDepth, int width, int tasksPerProject) {
+            for (int i = 0; i < tasksPerProject; i++) {
+                String id = "TASK-" + ids.size();
+                project.add(new TaskItem(quietTask(id)));
+                ids.add(id);
+            }
+            if (remainingDepth <= 0) {
+                return;
+            }
+            // Only the first child branches out, so deep trees stay a manageable size
+            for (int i = 0; i < width; i++) {
+                Project sub = new Project(project.getName() + "." + i);
+                project.add(sub);
+                fill(sub, i == 0 ? remainingDepth - 1 : 0, width, tasksPerProject);
+            }
+        }
+    }
+}
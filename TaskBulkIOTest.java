@@ -0,0 +1,195 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Round-trip harness for TaskBulkIO: exports a tree whose text needs every kind of escape,
+// imports it into an empty system and checks each task came back with the same fields,
+// in the same place and counted in the same workloads. Then feeds in malformed rows.
+// Usage: java TaskBulkIOTest
+public class TaskBulkIOTest {
+    // Text that needs quoting or escaping in CSV, JSON or both
+    private static final String[] TEXTS = {
+        "plain", "comma, here", "\"quoted\"", "line\nbreak", "carriage\rreturn", "crlf\r\nend",
+        "back\\slash", "tab\there", "control\u0001char", "unicode \u00e9\u4e2d\ud83d\ude00", "", " spaced "
+    };
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (RenderFormat format : new RenderFormat[] {RenderFormat.CSV, RenderFormat.JSON_LINES}) {
+                roundTrip(format, executor);
+            }
+            malformedRows(executor);
+            nestedImport(executor);
+        } finally {
+            executor.shutdown();
+        }
+        System.out.println("OK: bulk import/export round trip");
+    }
+
+    private static void roundTrip(RenderFormat format, ExecutorService executor) throws Exception {
+        TaskManagementSystem original = new TaskManagementSystem();
+        original.addTeamMember(new TeamMember("Alice"));
+        Project root = original.createProject("Root, \"main\"");
+        Project child = new Project("Child\nline");
+        int count = 0;
+        for (String text : TEXTS) {
+            Task task = new Task("T-" + count, "Title " + text, text, "2025-01-" + (10 + count % 10));
+            if (count % 3 == 0) {
+                original.findTeamMemberByName("Alice").restoreAssignedTask(task);
+            } else if (count % 3 == 1) {
+                task.setAssignee(text.isEmpty() ? "Bob" : text);
+            }
+            if (count % 4 == 1) {
+                task.setTaskState(InProgressState.INSTANCE);
+            }
+            (count % 2 == 0 ? root : child).add(new TaskItem(task));
+            if (count == 1) {
+                root.add(child);
+            }
+            count++;
+        }
+
+        Path file = Files.createTempFile("bulk-io", format == RenderFormat.CSV ? ".csv" : ".jsonl");
+        Path again = Files.createTempFile("bulk-io", format == RenderFormat.CSV ? ".csv" : ".jsonl");
+        try {
+            check(TaskBulkIO.exportTasks(original, file, format) == count, format + ": export count");
+
+            TaskManagementSystem imported = new TaskManagementSystem();
+            TeamMember alice = new TeamMember("Alice");
+            imported.addTeamMember(alice);
+            TaskBulkIO.ImportResult result = TaskBulkIO.importTasks(imported, file, format, executor, 2);
+            check(result.getImported() == count && result.getRejected() == 0,
+                  format + ": imported " + result.getImported() + ", rejected " + result.getRejected());
+            for (int i = 0; i < count; i++) {
+                Task expected = original.findTaskById("T-" + i);
+                Task actual = imported.findTaskById("T-" + i);
+                check(actual != null, format + ": T-" + i + " missing");
+                check(expected.getTitle().equals(actual.getTitle())
+                      && expected.getDescription().equals(actual.getDescription())
+                      && expected.getDueDate().equals(actual.getDueDate())
+                      && same(expected.getAssignee(), actual.getAssignee())
+                      && expected.getTaskState() == actual.getTaskState(),
+                      format + ": T-" + i + " fields differ");
+                check(original.findParentProject(expected.getId()).getName()
+                          .equals(imported.findParentProject(actual.getId()).getName()),
+                      format + ": T-" + i + " is in the wrong project");
+            }
+            int assignedToAlice = original.findTeamMemberByName("Alice").getWorkload().getTotalCount();
+            check(alice.getWorkload().getTotalCount() == assignedToAlice,
+                  format + ": Alice's workload is " + alice.getWorkload().getTotalCount() + ", expected " + assignedToAlice);
+
+            // Exporting what was imported gives back the same file
+            TaskBulkIO.exportTasks(imported, again, format);
+            check(Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(again)), format + ": re-export differs");
+        } finally {
+            Files.delete(file);
+            Files.delete(again);
+        }
+    }
+
+    // Bad rows are counted as rejected and the rest of the file still goes in
+    private static void malformedRows(ExecutorService executor) throws Exception {
+        List<String> csv = Arrays.asList(
+            "path,id,title,description,due,assignee,state",
+            "P,C-1,ok,,2025-01-01,,",
+            "P,C-2,too,many,columns,,,",
+            "P,C-4,unknown state,,2025-01-01,,Sleeping",
+            "P,C-1,duplicate id,,2025-01-01,,",
+            ",C-5,no path,,2025-01-01,,",
+            "P,C-6,ok,\"multi\nline\",2025-01-01,,",
+            // An open quote runs to the end of the file, so this row has to come last
+            "P,C-3,\"unterminated,,2025-01-01,,");
+        checkImport(RenderFormat.CSV, csv, 2, 5, executor);
+        // Without a header, a first row in a project named "path" is still a row
+        checkImport(RenderFormat.CSV, Arrays.asList("path,P-1,first,,,,", "path,P-2,second,,,,"), 2, 0, executor);
+
+        List<String> json = Arrays.asList(
+            "{\"path\":\"P\",\"id\":\"J-1\",\"title\":\"ok \\u0041\"}",
+            "{\"path\":\"P\",\"id\":\"J-2\",\"title\":\"bad hex \\u00zz\"}",
+            "{\"path\":\"P\",\"id\":\"J-3\",\"title\":\"short escape \\u12\"}",
+            "{\"path\":\"P\",\"id\":\"J-4\",\"title\":\"unterminated}",
+            "not json",
+            "{\"path\":\"P\",\"id\":\"J-5\",\"title\":null}");
+        checkImport(RenderFormat.JSON_LINES, json, 2, 4, executor);
+    }
+
+    // Rows for projects that already exist land in them at every depth; importing the same
+    // paths twice adds tasks but never a second copy of a subproject
+    private static void nestedImport(ExecutorService executor) throws Exception {
+        TaskManagementSystem tms = new TaskManagementSystem();
+        Project root = tms.createProject("Root");
+        Project sub = new Project("Sub");
+        root.add(sub);
+        sub.add(new TaskItem(new Task("E-1", "Existing", null, null)));
+        importLines(tms, executor,
+                    "Root/Sub,I-1,In sub,,,,",
+                    "Root/Sub/Deep,I-2,In deep,,,,",
+                    "Root/New,I-3,In new,,,,");
+        importLines(tms, executor,
+                    "Root/Sub,I-4,In sub again,,,,",
+                    "Root/Sub/Deep,I-5,In deep again,,,,");
+
+        check(tms.getProjects().size() == 1, "nested: " + tms.getProjects().size() + " root projects");
+        check(subprojects(root, "Sub") == 1 && subprojects(root, "New") == 1, "nested: Root's subprojects duplicated");
+        check(subprojects(sub, "Deep") == 1, "nested: Sub's subprojects duplicated");
+        for (String id : new String[] {"E-1", "I-1", "I-4"}) {
+            check(tms.findParentProject(id) == sub, "nested: " + id + " is not in the existing Sub");
+        }
+        Project deep = tms.findParentProject("I-2");
+        check(deep != null && deep.getParent() == sub && tms.findParentProject("I-5") == deep,
+              "nested: Deep tasks are not in one project under Sub");
+        check(tms.findParentProject("I-3").getParent() == root, "nested: New is not under Root");
+    }
+
+    private static void importLines(TaskManagementSystem tms, ExecutorService executor, String... rows)
+            throws Exception {
+        Path file = Files.createTempFile("bulk-io", ".csv");
+        try {
+            Files.write(file, String.join("\n", rows).getBytes(StandardCharsets.UTF_8));
+            TaskBulkIO.ImportResult result = TaskBulkIO.importTasks(tms, file, RenderFormat.CSV, executor, 1);
+            check(result.getImported() == rows.length && result.getRejected() == 0,
+                  "nested: imported " + result.getImported() + ", rejected " + result.getRejected());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static int subprojects(Project project, String name) {
+        int count = 0;
+        for (TaskComponent child : project.getTasks()) {
+            if (child instanceof Project && ((Project) child).getName().equals(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void checkImport(RenderFormat format, List<String> lines, long imported, long rejected,
+                                    ExecutorService executor) throws Exception {
+        Path file = Files.createTempFile("bulk-io", ".txt");
+        try {
+            Files.write(file, String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+            TaskBulkIO.ImportResult result = TaskBulkIO.importTasks(new TaskManagementSystem(), file, format, executor, 1);
+            check(result.getImported() == imported && result.getRejected() == rejected,
+                  format + " malformed: imported " + result.getImported() + ", rejected " + result.getRejected()
+                  + ", expected " + imported + " and " + rejected);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
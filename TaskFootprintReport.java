@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Heap used per task by a TaskManagementSystem built through its public API: projects
+// with subprojects, generated ids, auto-assigned members and most tasks completed, as a
+// long-running system ends up. Measured once with every task live in the project tree
+// and again after the compact archive has taken the completed ones. JOL is not available
+// without a build, so this measures used heap after GC.
+// Usage: java TaskFootprintReport [tasks]
+public class TaskFootprintReport {
+    private static final int TASKS_PER_PROJECT = 1000;
+    // Four in five tasks end up completed
+    private static final int OPEN_EVERY = 5;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        // Hundreds of thousands of transitions would otherwise each print a line
+        TaskWorkflow.standard().setTransitionSink(TransitionSink.NONE);
+
+        long before = usedHeap();
+        TaskManagementSystem tms = build(count);
+        long live = usedHeap() - before;
+        tms.enableCompactArchive();
+        int archived = tms.archiveCompletedTasks();
+        long compact = usedHeap() - before;
+        // Keep the system reachable until after the measurements
+        if (tms.findTaskById(tms.getCompactArchive().getId(0)) == null) {
+            throw new IllegalStateException("Archived task missing");
+        }
+
+        System.out.printf("tasks            : %,d (%,d completed)%n", count, archived);
+        System.out.printf("all live         : %,d bytes/task%n", live / count);
+        System.out.printf("compact archive  : %,d bytes/task%n", compact / count);
+    }
+
+    private static TaskManagementSystem build(int count) {
+        TaskManagementSystem tms = new TaskManagementSystem();
+        for (String name : new String[] {"parth", "aryan", "arth"}) {
+            tms.addTeamMember(new TeamMember(name) {
+                @Override
+                public void updateBatch(List<Task> tasks) {
+                }
+            });
+        }
+        Project root = tms.createProject("Footprint");
+        Project project = null;
+        List<Task> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (i % TASKS_PER_PROJECT == 0) {
+                project = new Project("Project " + i / TASKS_PER_PROJECT);
+                root.add(project);
+            }
+            // Titles, descriptions and due dates are fresh strings, as when parsed from input
+            String due = "2025-" + String.format("%02d-%02d", i % 12 + 1, i % 28 + 1);
+            Task task = tms.createTask("Task " + i, "Description " + i, due);
+            project.add(new TaskItem(task));
+            tasks.add(task);
+        }
+        tms.autoAssignAll(tasks);
+        TaskTransaction transaction = tms.newTransaction();
+        for (int i = 0; i < count; i++) {
+            if (i % OPEN_EVERY != 0) {
+                transaction.moveToState(tasks.get(i), CompletedState.INSTANCE);
+            }
+        }
+        if (!transaction.commit()) {
+            throw new IllegalStateException("Could not complete tasks: " + transaction.getConflicts().size());
+        }
+        return tms;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
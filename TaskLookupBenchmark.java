@@ -0,0 +1,114 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compares TaskManagementSystem.findTaskById (index) with the recursive tree scan, and
+// reports bytes allocated per lookup for the scan over snapshot views versus the scan
+// with defensive ArrayList copies that getTasks used to make.
+// Usage: java TaskLookupBenchmark [tasks] [depth] [lookups]
+public class TaskLookupBenchmark {
+
+    public static void main(String[] args) {
+        int taskCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        TaskManagementSystem tms = new TaskManagementSystem();
+        List<String> ids = buildTree(tms, taskCount, depth);
+        System.out.println("Built " + ids.size() + " tasks, depth " + depth);
+
+        // Warm up every path before measuring
+        for (Mode mode : Mode.values()) {
+            run(tms, ids, lookups, mode);
+        }
+        for (Mode mode : Mode.values()) {
+            long allocatedBefore = allocatedBytes();
+            long nanos = run(tms, ids, lookups, mode);
+            long allocated = allocatedBytes() - allocatedBefore;
+            System.out.printf("%-10s: %,d ns/lookup, %,d bytes/lookup%n",
+                              mode.name().toLowerCase(), nanos / lookups, allocated / lookups);
+        }
+    }
+
+    private enum Mode {
+        INDEX,
+        SCAN,
+        COPY_SCAN
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static Task copyingScan(TaskManagementSystem tms, String id) {
+        for (Project project : new ArrayList<>(tms.getProjects())) {
+            Task task = copyingScan(project, id);
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private static Task copyingScan(TaskComponent component, String id) {
+        if (component instanceof TaskItem) {
+            Task task = ((TaskItem) component).getTask();
+            return task.getId().equals(id) ? task : null;
+        }
+        for (TaskComponent child : new ArrayList<>(((Project) component).getTasks())) {
+            Task task = copyingScan(child, id);
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> buildTree(TaskManagementSystem tms, int taskCount, int depth) {
+        List<String> ids = new ArrayList<>(taskCount);
+        Project root = tms.createProject("Benchmark");
+        List<Project> leaves = new ArrayList<>();
+        Project current = root;
+        for (int level = 0; level < depth; level++) {
+            Project sub = new Project("Level " + level);
+            current.add(sub);
+            leaves.add(sub);
+            current = sub;
+        }
+        leaves.add(root);
+        for (int i = 0; i < taskCount; i++) {
+            String id = "BENCH-" + i;
+            Project parent = leaves.get(i % leaves.size());
+            parent.add(new TaskItem(new Task(id, "Task " + i, "Benchmark task", "2025-01-01")));
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static long run(TaskManagementSystem tms, List<String> ids, int lookups, Mode mode) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            String id = ids.get((int) ((i * 7919L) % ids.size()));
+            Task task;
+            switch (mode) {
+                case INDEX:
+                    task = tms.findTaskById(id);
+                    break;
+                case SCAN:
+                    task = tms.scanForTaskById(id);
+                    break;
+                default:
+                    task = copyingScan(tms, id);
+            }
+            if (task != null) {
+                found++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found != lookups) {
+            throw new IllegalStateException("Lookup mismatch: " + found + " of " + lookups);
+        }
+        return elapsed;
+    }
+}
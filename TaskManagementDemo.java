@@ -1,48 +1,289 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
 
 // 1. Prototype Pattern
 
- 
 interface TaskPrototype {
     TaskPrototype clone();
 }
 
+// Bounded, lock-free deduplication: a fixed table of slots indexed by hash. A miss
+// overwrites whatever held the slot, so memory stays bounded however many distinct
+// values pass through, while values that keep recurring stay canonical.
+class InternPool<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    
+    // capacity is rounded up to a power of two
+    public InternPool(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+    
+    public T intern(T value) {
+        if (value == null) {
+            return null;
+        }
+        int hash = value.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        T cached = slots.get(slot);
+        if (cached != null && cached.equals(value)) {
+            return cached;
+        }
+        slots.lazySet(slot, value);
+        return value;
+    }
+}
+
+// Title and description, shared by every task cloned or instantiated from the same
+// template and deduplicated through a pool for tasks created from parsed input
+final class TaskText {
+    private static final InternPool<TaskText> POOL = new InternPool<>(1 << 14);
+    
+    private final String title;
+    private final String description;
+    
+    private TaskText(String title, String description) {
+        this.title = title;
+        this.description = description;
+    }
+    
+    public static TaskText of(String title, String description) {
+        return POOL.intern(new TaskText(title, description));
+    }
+    
+    public String getTitle() {
+        return title;
+    }
+    
+    public String getDescription() {
+        return description;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TaskText)) {
+            return false;
+        }
+        TaskText other = (TaskText) o;
+        return Objects.equals(title, other.title) && Objects.equals(description, other.description);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(title) * 31 + Objects.hashCode(description);
+    }
+}
+
 class Task implements TaskPrototype {
+    private static final AtomicReferenceFieldUpdater<Task, TaskState> STATE =
+        AtomicReferenceFieldUpdater.newUpdater(Task.class, TaskState.class, "state");
+    private static final AtomicLongFieldUpdater<Task> VERSION = AtomicLongFieldUpdater.newUpdater(Task.class, "version");
+    private static final InternPool<String> ASSIGNEE_NAMES = new InternPool<>(1 << 12);
+    
     private String id;
-    private String title;
-    private String description;
-    private String assignee;
-    private TaskState state;
+    private TaskText text;
+    // Name of the assignee, always the member's own name string when assigneeMember is set
+    private volatile String assignee;
+    private volatile TeamMember assigneeMember;
+    private volatile TaskState state;
     private String dueDate;
+    private TaskWorkflow workflow;
+    // The member whose workload counts this task, and the state it is counted under;
+    // changed only while holding this task's monitor
+    private volatile TeamMember countedMember;
+    private TaskState countedState;
+    // Bumped after every change of state or assignee, for optimistic checks in TaskTransaction
+    private volatile long version;
     
     public Task(String id, String title, String description, String dueDate) {
+        this(id, title, description, dueDate, TaskWorkflow.standard());
+    }
+    
+    public Task(String id, String title, String description, String dueDate, TaskWorkflow workflow) {
+        this(id, TaskText.of(title, description), dueDate, workflow);
+    }
+    
+    private Task(String id, TaskText text, String dueDate, TaskWorkflow workflow) {
         this.id = id;
-        this.title = title;
-        this.description = description;
+        this.text = text;
         this.dueDate = dueDate;
-        this.state = new AssignedState();
+        this.workflow = workflow;
+        this.state = workflow.getInitialState();
     }
     
-    public void setAssignee(String assignee) {
-        this.assignee = assignee;
+    // For names without a TeamMember, e.g. from an import; the name is interned
+    public synchronized void setAssignee(String assignee) {
+        this.assigneeMember = null;
+        this.assignee = ASSIGNEE_NAMES.intern(assignee);
+        recount(null);
+        VERSION.incrementAndGet(this);
+    }
+    
+    // Does not put the task in the member's workload, e.g. for templates; a task already
+    // counted for another member stops being counted
+    public synchronized void setAssignee(TeamMember member) {
+        this.assigneeMember = member;
+        this.assignee = member != null ? member.getName() : null;
+        recount(countedMember == member ? member : null);
+        VERSION.incrementAndGet(this);
+    }
+    
+    // Called by TeamMember.assignTask; the member's workload counts the task from now on
+    synchronized void assignTo(TeamMember member) {
+        this.assigneeMember = member;
+        this.assignee = member.getName();
+        recount(member);
+        VERSION.incrementAndGet(this);
+    }
+    
+    // Moves the task between workload buckets by the difference between what is counted
+    // and the current member and state, so it is safe to call any number of times
+    private void recount(TeamMember target) {
+        TeamMember previous = countedMember;
+        TaskState previousState = countedState;
+        // Written before reading the state; a transition writes the state before reading
+        // countedMember, so at least one of the two sees the other's change
+        countedMember = target;
+        TaskState current = target != null ? state : null;
+        if (previous == target && previousState == current) {
+            return;
+        }
+        if (previous != null) {
+            previous.getWorkload().remove(this, previousState);
+        }
+        if (target != null) {
+            target.getWorkload().add(this, current);
+        }
+        countedState = current;
+    }
+    
+    private void stateChanged() {
+        if (countedMember != null) {
+            synchronized (this) {
+                recount(countedMember);
+            }
+        }
     }
     
     public String getAssignee() {
         return assignee;
     }
     
+    // null if unassigned or assigned by name only
+    public TeamMember getAssigneeMember() {
+        return assigneeMember;
+    }
+    
     public String getId() {
         return id;
     }
     
     public String getTitle() {
-        return title;
+        return text.getTitle();
     }
     
     public String getDescription() {
-        return description;
+        return text.getDescription();
     }
     
     public String getDueDate() {
@@ -53,41 +294,96 @@ class Task implements TaskPrototype {
         return state;
     }
     
+    public TaskWorkflow getWorkflow() {
+        return workflow;
+    }
+    
+    // Like the other setters, leaves the project's cached stats alone; see Project.aggregate
     public void setTaskState(TaskState state) {
         this.state = state;
+        stateChanged();
+        VERSION.incrementAndGet(this);
+    }
+    
+    // Succeeds only if no other thread changed the state since 'expected' was read
+    public boolean compareAndSetTaskState(TaskState expected, TaskState next) {
+        if (!STATE.compareAndSet(this, expected, next)) {
+            return false;
+        }
+        stateChanged();
+        VERSION.incrementAndGet(this);
+        return true;
+    }
+    
+    // Bumped only after the change itself is visible: read the version before the fields it
+    // should vouch for, and a later check against it fails if any of them changed since
+    public long getVersion() {
+        return version;
+    }
+    
+    // Returns the state the task moved from; the current state if it was already final
+    public TaskState moveToNextState() {
+        // Retry on contention so concurrent moves are applied one after another, never lost
+        while (true) {
+            TaskState current = state;
+            if (current.nextState(this)) {
+                return current;
+            }
+            Thread.onSpinWait();
+        }
+    }
+    
+    // Follows a skip or rollback edge; returns false if the workflow does not allow it
+    public boolean transitionTo(TaskState target) {
+        return workflow.transition(this, target) != null;
     }
     
-    public void moveToNextState() {
-        state.nextState(this);
+    // Same as transitionTo, but returns the state the task left, or null if not allowed
+    TaskState transitionFrom(TaskState target) {
+        return workflow.transition(this, target);
     }
     
     @Override
     public TaskPrototype clone() {
-        Task clonedTask = new Task(id, title, description, dueDate);
-        clonedTask.setAssignee(assignee);
-        clonedTask.setTaskState(state);
+        Task clonedTask = new Task(id, text, dueDate, workflow);
+        clonedTask.assignee = assignee;
+        clonedTask.assigneeMember = assigneeMember;
+        // Not counted in anyone's workload until assigned
+        clonedTask.state = state;
         return clonedTask;
     }
     
+    // A new, unassigned task in the workflow's initial state that shares this template's
+    // title, description and workflow; used for bulk instantiation instead of clone().
+    // Unlike clone() it drops the template's assignee, as cloning from a template always
+    // has: a template belongs to whoever created it, its instances to nobody yet
+    public Task instantiate(String id, String dueDate) {
+        return new Task(id, text, dueDate, workflow);
+    }
+    
     @Override
     public String toString() {
-        return "Task [id=" + id + ", title=" + title + ", state=" + state.getDescription() + 
+        return "Task [id=" + id + ", title=" + text.getTitle() + ", state=" + state.getDescription() +
                ", assignee=" + (assignee != null ? assignee : "Unassigned") + ", due=" + dueDate + "]";
     }
 }
 
 // 2. State Pattern
 
+// States are stateless flyweights; which state follows which lives in a TaskWorkflow
 interface TaskState {
-    void nextState(Task task);
     String getDescription();
+    
+    // Returns false if another thread moved the task first and the caller should retry
+    default boolean nextState(Task task) {
+        return task.getWorkflow().advance(task, this);
+    }
 }
 
 class AssignedState implements TaskState {
-    @Override
-    public void nextState(Task task) {
-        task.setTaskState(new InProgressState());
-        System.out.println("Task '" + task.getTitle() + "' moved from Assigned to In Progress state");
+    static final AssignedState INSTANCE = new AssignedState();
+    
+    private AssignedState() {
     }
     
     @Override
@@ -98,10 +394,9 @@ class AssignedState implements TaskState {
 
 
 class InProgressState implements TaskState {
-    @Override
-    public void nextState(Task task) {
-        task.setTaskState(new UnderReviewState());
-        System.out.println("Task '" + task.getTitle() + "' moved from In Progress to Under Review state");
+    static final InProgressState INSTANCE = new InProgressState();
+    
+    private InProgressState() {
     }
     
     @Override
@@ -111,10 +406,9 @@ class InProgressState implements TaskState {
 }
 
 class UnderReviewState implements TaskState {
-    @Override
-    public void nextState(Task task) {
-        task.setTaskState(new CompletedState());
-        System.out.println("Task '" + task.getTitle() + "' moved from Under Review to Completed state");
+    static final UnderReviewState INSTANCE = new UnderReviewState();
+    
+    private UnderReviewState() {
     }
     
     @Override
@@ -125,9 +419,9 @@ class UnderReviewState implements TaskState {
 
 
 class CompletedState implements TaskState {
-    @Override
-    public void nextState(Task task) {
-        System.out.println("Task '" + task.getTitle() + "' is already completed");
+    static final CompletedState INSTANCE = new CompletedState();
+    
+    private CompletedState() {
     }
     
     @Override
@@ -136,254 +430,7283 @@ class CompletedState implements TaskState {
     }
 }
 
-// 3. Composite Pattern
-
-interface TaskComponent {
-    void add(TaskComponent component);
-    void remove(TaskComponent component);
-    void display(int level);
-}
-
-class TaskItem implements TaskComponent {
-    private Task task;
-    
-    public TaskItem(Task task) {
-        this.task = task;
-    }
+// For workflows that need states beyond the four built-in ones
+class CustomTaskState implements TaskState {
+    private final String description;
     
-    public Task getTask() {
-        return task;
+    public CustomTaskState(String description) {
+        this.description = description;
     }
     
     @Override
-    public void add(TaskComponent component) {
-        System.out.println("Cannot add to a TaskItem");
+    public String getDescription() {
+        return description;
     }
+}
+
+interface TransitionSink {
+    TransitionSink NONE = (task, from, to) -> { };
     
+    void onTransition(Task task, TaskState from, TaskState to);
+    
+    default void onFinalState(Task task, TaskState state) {
+    }
+}
+
+class ConsoleTransitionSink implements TransitionSink {
     @Override
-    public void remove(TaskComponent component) {
-        System.out.println("Cannot remove from a TaskItem");
+    public void onTransition(Task task, TaskState from, TaskState to) {
+        System.out.println("Task '" + task.getTitle() + "' moved from " + from.getDescription() +
+                           " to " + to.getDescription() + " state");
     }
     
     @Override
-    public void display(int level) {
-        StringBuilder indent = new StringBuilder();
-        for (int i = 0; i < level; i++) {
-            indent.append("  ");
-        }
-        System.out.println(indent + "- " + task);
+    public void onFinalState(Task task, TaskState state) {
+        System.out.println("Task '" + task.getTitle() + "' is already " + state.getDescription().toLowerCase());
     }
 }
 
-
-class Project implements TaskComponent {
-    private String name;
-    private List<TaskComponent> tasks = new ArrayList<>();
+// Transition table: one default "next" edge per state plus optional skip/rollback
+// edges that are only taken through Task.transitionTo. Lookups do not allocate.
+class TaskWorkflow {
+    private static final TaskWorkflow STANDARD = new TaskWorkflow(AssignedState.INSTANCE)
+        .addTransition(AssignedState.INSTANCE, InProgressState.INSTANCE)
+        .addTransition(InProgressState.INSTANCE, UnderReviewState.INSTANCE)
+        .addTransition(UnderReviewState.INSTANCE, CompletedState.INSTANCE);
     
-    public Project(String name) {
-        this.name = name;
+    private final TaskState initialState;
+    private final Map<TaskState, TaskState> nextStates = new ConcurrentHashMap<>();
+    private final Map<TaskState, Set<TaskState>> extraEdges = new ConcurrentHashMap<>();
+    private volatile TransitionSink sink = new ConsoleTransitionSink();
+    
+    public TaskWorkflow(TaskState initialState) {
+        this.initialState = initialState;
     }
     
-    public String getName() {
-        return name;
+    public static TaskWorkflow standard() {
+        return STANDARD;
     }
     
-    @Override
-    public void add(TaskComponent component) {
-        tasks.add(component);
+    public TaskWorkflow addTransition(TaskState from, TaskState to) {
+        nextStates.put(from, to);
+        return this;
     }
     
-    @Override
-    public void remove(TaskComponent component) {
-        tasks.remove(component);
+    public TaskWorkflow allowEdge(TaskState from, TaskState to) {
+        extraEdges.computeIfAbsent(from, k -> ConcurrentHashMap.newKeySet()).add(to);
+        return this;
     }
     
-    @Override
-    public void display(int level) {
-        StringBuilder indent = new StringBuilder();
-        for (int i = 0; i < level; i++) {
-            indent.append("  ");
-        }
-        System.out.println(indent + "Project: " + name);
-        for (TaskComponent component : tasks) {
-            component.display(level + 1);
-        }
+    public void setTransitionSink(TransitionSink sink) {
+        this.sink = sink;
     }
     
-    public List<TaskComponent> getTasks() {
-        return new ArrayList<>(tasks);
+    public TaskState getInitialState() {
+        return initialState;
     }
-}
-
-// 4. Observer Pattern
-
-interface TaskObserver {
-    void update(Task task);
-}
-
-class TeamMember implements TaskObserver {
-    private String name;
-    private List<Task> assignedTasks = new ArrayList<>();
     
-    public TeamMember(String name) {
-        this.name = name;
+    public TaskState getNextState(TaskState state) {
+        return nextStates.get(state);
     }
     
-    public String getName() {
-        return name;
+    public TaskState findState(String description) {
+        if (initialState.getDescription().equals(description)) {
+            return initialState;
+        }
+        for (TaskState state : nextStates.values()) {
+            if (state.getDescription().equals(description)) {
+                return state;
+            }
+        }
+        for (Set<TaskState> targets : extraEdges.values()) {
+            for (TaskState state : targets) {
+                if (state.getDescription().equals(description)) {
+                    return state;
+                }
+            }
+        }
+        return null;
     }
     
-    @Override
-    public void update(Task task) {
-        System.out.println("Notification to " + name + ": Task '" + task.getTitle() + 
-                           "' has been updated, new state: " + task.getTaskState().getDescription());
+    public boolean isAllowed(TaskState from, TaskState to) {
+        return nextStates.get(from) == to || extraEdges.getOrDefault(from, Collections.emptySet()).contains(to);
     }
     
-    public void assignTask(Task task) {
-        task.setAssignee(name);
-        assignedTasks.add(task);
-        System.out.println("Task '" + task.getTitle() + "' assigned to " + name);
+    // Allowed directly, or by following "next" edges; the walk stops if the edges loop
+    public boolean canReach(TaskState from, TaskState to) {
+        if (isAllowed(from, to)) {
+            return true;
+        }
+        int steps = nextStates.size();
+        for (TaskState state = nextStates.get(from); state != null && steps-- > 0; state = nextStates.get(state)) {
+            if (state == to) {
+                return true;
+            }
+        }
+        return false;
     }
     
-    public Task createTemplateTask(String title, String description, String dueDate) {
-        String id = "TASK-" + System.currentTimeMillis() % 10000;
-        Task task = new Task(id, title, description, dueDate);
-        task.setAssignee(name);
-        return task;
+    boolean advance(Task task, TaskState expected) {
+        TaskState next = nextStates.get(expected);
+        if (next == null) {
+            sink.onFinalState(task, expected);
+            return true;
+        }
+        if (!task.compareAndSetTaskState(expected, next)) {
+            return false;
+        }
+        sink.onTransition(task, expected, next);
+        return true;
     }
     
-    public List<Task> getAssignedTasks() {
-        return new ArrayList<>(assignedTasks);
+    // Returns the state the task left, or null if the edge is not allowed
+    TaskState transition(Task task, TaskState target) {
+        while (true) {
+            TaskState current = task.getTaskState();
+            if (!isAllowed(current, target)) {
+                return null;
+            }
+            if (task.compareAndSetTaskState(current, target)) {
+                sink.onTransition(task, current, target);
+                return current;
+            }
+        }
     }
 }
 
-class TaskManagementSystem {
-    private List<TaskObserver> observers = new ArrayList<>();
-    private List<Project> projects = new ArrayList<>();
-    private List<TeamMember> teamMembers = new ArrayList<>();
-    private List<Task> templateTasks = new ArrayList<>();
+// Append-friendly list whose snapshot() is O(1) and never copies. A snapshot is a view
+// of the backing array up to the size at the time it was taken: appends only write
+// past that size (or into a new array when growing), and removals copy the array
+// first, so a snapshot never changes after it is handed out.
+class SnapshotList<E> {
+    private Object[] elements = new Object[8];
+    private int size;
+    private Snapshot<E> cached;
     
-    public void addObserver(TaskObserver observer) {
-        observers.add(observer);
+    private static final class Snapshot<E> extends AbstractList<E> implements RandomAccess {
+        private final Object[] elements;
+        private final int size;
+        
+        Snapshot(Object[] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public E get(int index) {
+            Objects.checkIndex(index, size);
+            return (E) elements[index];
+        }
+        
+        @Override
+        public int size() {
+            return size;
+        }
     }
     
-    public void removeObserver(TaskObserver observer) {
-        observers.remove(observer);
+    public synchronized void add(E element) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = element;
+        cached = null;
     }
     
-    public void notifyObservers(Task task) {
-        for (TaskObserver observer : observers) {
-            observer.update(task);
+    public synchronized void addAll(Collection<? extends E> added) {
+        if (size + added.size() > elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(elements.length * 2, size + added.size()));
         }
+        for (E element : added) {
+            elements[size++] = element;
+        }
+        cached = null;
     }
     
-    public Project createProject(String name) {
-        Project project = new Project(name);
-        projects.add(project);
-        return project;
+    public synchronized boolean remove(Object element) {
+        for (int i = 0; i < size; i++) {
+            if (Objects.equals(elements[i], element)) {
+                Object[] copy = new Object[Math.max(elements.length, 8)];
+                System.arraycopy(elements, 0, copy, 0, i);
+                System.arraycopy(elements, i + 1, copy, i, size - i - 1);
+                elements = copy;
+                size--;
+                cached = null;
+                return true;
+            }
+        }
+        return false;
     }
     
-    public Task createTask(String title, String description, String dueDate) {
-        String id = "TASK-" + System.currentTimeMillis() % 10000;
-        return new Task(id, title, description, dueDate);
+    public synchronized int size() {
+        return size;
     }
     
-    public void assignTask(Task task, TeamMember member) {
-        member.assignTask(task);
-        notifyObservers(task);
+    // Repeated calls without writes in between return the same instance
+    public synchronized List<E> snapshot() {
+        if (cached == null) {
+            cached = new Snapshot<>(elements, size);
+        }
+        return cached;
     }
+}
+
+// 3. Composite Pattern
+
+interface TaskComponent {
+    void add(TaskComponent component);
+    void remove(TaskComponent component);
+    void display(int level);
+    // Roll-up of every task in this component; overdue is judged against asOf
+    TaskStats aggregate(LocalDate asOf);
+    // The project this component is a direct child of, or null
+    Project getParent();
+}
+
+// Link fields of a child in a Project: its parent and its neighbours in the parent's
+// ChildList. Only ChildList changes them, while holding the owning list's lock.
+abstract class LinkedTaskComponent implements TaskComponent {
+    volatile Project parent;
+    LinkedTaskComponent prev;
+    LinkedTaskComponent next;
     
-    public void moveTaskToNextState(Task task) {
-        task.moveToNextState();
-        notifyObservers(task);
+    @Override
+    public Project getParent() {
+        return parent;
     }
+}
+
+// Children of a Project as an intrusive doubly linked list through the components
+// themselves, so membership checks, removal, moves and reordering are O(1) given the
+// component. Snapshots work like SnapshotList's: appends extend the snapshot array in
+// place, and only the first snapshot after a removal or reorder rebuilds it, once.
+class ChildList {
+    private static final Object TIE_LOCK = new Object();
     
-    public void displayAllProjects() {
-        System.out.println("\n===== All Projects =====");
-        for (Project project : projects) {
-            project.display(0);
-        }
+    private final Project owner;
+    private LinkedTaskComponent head;
+    private LinkedTaskComponent tail;
+    private int size;
+    private Object[] array = new Object[8];
+    private int arraySize;
+    // False once the list no longer matches array[0..arraySize) other than by appends; the
+    // stale array is dropped then, so removed children are not kept reachable until the
+    // next snapshot rebuilds it (snapshots already handed out keep their own reference)
+    private boolean arrayValid = true;
+    private List<TaskComponent> cached;
+    
+    ChildList(Project owner) {
+        this.owner = owner;
     }
     
-    public List<Project> getProjects() {
-        return new ArrayList<>(projects);
+    public synchronized void add(LinkedTaskComponent component) {
+        checkDetached(component);
+        link(component, null);
     }
     
-    public void addTeamMember(TeamMember member) {
-        teamMembers.add(member);
-        addObserver(member);
+    public synchronized void addAll(List<? extends LinkedTaskComponent> components) {
+        for (LinkedTaskComponent component : components) {
+            checkDetached(component);
+        }
+        for (LinkedTaskComponent component : components) {
+            link(component, null);
+        }
     }
     
-    public List<TeamMember> getTeamMembers() {
-        return new ArrayList<>(teamMembers);
+    private void checkDetached(LinkedTaskComponent component) {
+        Project parent = component.parent;
+        if (parent != null) {
+            throw new IllegalArgumentException("Already a child of project '" + parent.getName() + "'");
+        }
     }
     
-    public void addTemplateTask(Task template) {
-        templateTasks.add(template);
+    public synchronized boolean remove(LinkedTaskComponent component) {
+        if (component.parent != owner) {
+            return false;
+        }
+        unlink(component);
+        return true;
     }
     
-    public List<Task> getTemplateTasks() {
-        return new ArrayList<>(templateTasks);
+    // Places a child right before 'before', or last if before is null
+    public synchronized boolean reorder(LinkedTaskComponent component, LinkedTaskComponent before) {
+        if (component.parent != owner || (before != null && before.parent != owner)) {
+            return false;
+        }
+        if (component != before) {
+            unlink(component);
+            link(component, before);
+        }
+        return true;
     }
     
-    public Project findProjectByName(String name) {
-        for (Project project : projects) {
-            if (project.getName().equalsIgnoreCase(name)) {
-                return project;
+    // Both lists are locked, in a fixed order, so no reader sees the component in neither or both
+    public static boolean move(LinkedTaskComponent component, ChildList from, ChildList to, LinkedTaskComponent before) {
+        if (from == to) {
+            return from.reorder(component, before);
+        }
+        int fromHash = System.identityHashCode(from);
+        int toHash = System.identityHashCode(to);
+        if (fromHash == toHash) {
+            synchronized (TIE_LOCK) {
+                return lockedMove(component, from, to, before, from, to);
             }
         }
-        return null;
+        return fromHash < toHash ? lockedMove(component, from, to, before, from, to)
+                                 : lockedMove(component, from, to, before, to, from);
     }
     
-    public TeamMember findTeamMemberByName(String name) {
-        for (TeamMember member : teamMembers) {
-            if (member.getName().equalsIgnoreCase(name)) {
-                return member;
+    private static boolean lockedMove(LinkedTaskComponent component, ChildList from, ChildList to,
+                                      LinkedTaskComponent before, ChildList first, ChildList second) {
+        synchronized (first) {
+            synchronized (second) {
+                if (component.parent != from.owner || (before != null && before.parent != to.owner)) {
+                    return false;
+                }
+                from.unlink(component);
+                to.link(component, before);
+                return true;
             }
         }
-        return null;
     }
     
-    public Task findTaskById(String id) {
-        for (Project project : projects) {
-            Task task = findTaskInComponent(project, id);
-            if (task != null) {
-                return task;
-            }
+    // Detaches every child at once, leaving the list empty
+    public synchronized List<TaskComponent> clear() {
+        List<TaskComponent> children = snapshot();
+        for (LinkedTaskComponent node = head; node != null; ) {
+            LinkedTaskComponent next = node.next;
+            node.parent = null;
+            node.prev = null;
+            node.next = null;
+            node = next;
         }
-        return null;
+        head = null;
+        tail = null;
+        size = 0;
+        array = new Object[8];
+        arraySize = 0;
+        arrayValid = true;
+        cached = null;
+        return children;
     }
     
-    private Task findTaskInComponent(TaskComponent component, String id) {
-        if (component instanceof TaskItem) {
-            Task task = ((TaskItem) component).getTask();
-            if (task.getId().equals(id)) {
-                return task;
-            }
-        } else if (component instanceof Project) {
-            Project project = (Project) component;
-            for (TaskComponent child : project.getTasks()) {
-                Task task = findTaskInComponent(child, id);
-                if (task != null) {
-                    return task;
+    public synchronized int size() {
+        return size;
+    }
+    
+    public synchronized List<TaskComponent> snapshot() {
+        if (cached == null) {
+            if (!arrayValid) {
+                Object[] rebuilt = new Object[Math.max(8, size + (size >> 1))];
+                int i = 0;
+                for (LinkedTaskComponent node = head; node != null; node = node.next) {
+                    rebuilt[i++] = node;
                 }
+                array = rebuilt;
+                arraySize = size;
+                arrayValid = true;
             }
+            cached = new ArraySnapshot(array, arraySize);
         }
-        return null;
+        return cached;
     }
-}
-public class TaskManagementDemo {
-    private static TaskManagementSystem tms = new TaskManagementSystem();
-    private static Scanner scanner = new Scanner(System.in);
     
-    public static void main(String[] args) {
-         initializeSystem();
-        
-        boolean exit = false;
-        while (!exit) {
-            exit = handleMainMenu();
+    private void link(LinkedTaskComponent component, LinkedTaskComponent before) {
+        component.parent = owner;
+        component.next = before;
+        component.prev = before == null ? tail : before.prev;
+        if (component.prev == null) {
+            head = component;
+        } else {
+            component.prev.next = component;
+        }
+        if (before == null) {
+            tail = component;
+        } else {
+            before.prev = component;
+        }
+        size++;
+        cached = null;
+        if (before != null) {
+            invalidateArray();
+        } else if (arrayValid) {
+            // Same as SnapshotList.add: earlier snapshots only see up to their own size
+            if (arraySize == array.length) {
+                array = Arrays.copyOf(array, arraySize * 2);
+            }
+            array[arraySize++] = component;
+        }
+    }
+    
+    private void unlink(LinkedTaskComponent component) {
+        if (component.prev == null) {
+            head = component.next;
+        } else {
+            component.prev.next = component.next;
+        }
+        if (component.next == null) {
+            tail = component.prev;
+        } else {
+            component.next.prev = component.prev;
+        }
+        component.parent = null;
+        component.prev = null;
+        component.next = null;
+        size--;
+        cached = null;
+        invalidateArray();
+    }
+    
+    private void invalidateArray() {
+        arrayValid = false;
+        array = null;
+        arraySize = 0;
+    }
+    
+    private static final class ArraySnapshot extends AbstractList<TaskComponent> implements RandomAccess {
+        private final Object[] elements;
+        private final int size;
+        
+        ArraySnapshot(Object[] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+        
+        @Override
+        public TaskComponent get(int index) {
+            Objects.checkIndex(index, size);
+            return (TaskComponent) elements[index];
+        }
+        
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
+
+// Pre-order walk over the composite with an explicit stack in place of recursion, so tree
+// depth is bounded by the heap rather than the thread stack. A project's children come
+// from one snapshot, taken when the walk returns the project and descended into on the
+// following next() call.
+final class ComponentWalk {
+    private List<?>[] lists = new List<?>[16];
+    private Project[] owners = new Project[16];
+    private int[] positions = new int[16];
+    private int top;
+    private final int maxDepth;
+    private int depth;
+    private Project parent;
+    private Project pending;
+    private List<TaskComponent> children;
+    
+    ComponentWalk(List<? extends TaskComponent> roots) {
+        this(roots, Integer.MAX_VALUE);
+    }
+    
+    // Projects deeper than maxDepth below the roots are returned but not descended into
+    ComponentWalk(List<? extends TaskComponent> roots, int maxDepth) {
+        this.maxDepth = maxDepth;
+        lists[0] = roots;
+    }
+    
+    static ComponentWalk of(TaskComponent root) {
+        return new ComponentWalk(Collections.singletonList(root));
+    }
+    
+    // The next component in pre-order, or null once the walk is done
+    public TaskComponent next() {
+        if (children != null) {
+            if (++top == lists.length) {
+                lists = Arrays.copyOf(lists, top * 2);
+                owners = Arrays.copyOf(owners, top * 2);
+                positions = Arrays.copyOf(positions, top * 2);
+            }
+            lists[top] = children;
+            owners[top] = pending;
+            positions[top] = 0;
+            children = null;
+            pending = null;
+        }
+        while (top >= 0) {
+            List<?> list = lists[top];
+            if (positions[top] < list.size()) {
+                TaskComponent component = (TaskComponent) list.get(positions[top]++);
+                depth = top;
+                parent = owners[top];
+                if (component instanceof Project && top < maxDepth) {
+                    pending = (Project) component;
+                    children = pending.getTasks();
+                }
+                return component;
+            }
+            lists[top] = null;
+            owners[top] = null;
+            top--;
+        }
+        return null;
+    }
+    
+    // Depth of the last component returned, 0 for the roots
+    public int depth() {
+        return depth;
+    }
+    
+    // The project the last component was listed in, or null for the roots
+    public Project parent() {
+        return parent;
+    }
+    
+    // The snapshot the walk descends into next when the last component was a project
+    public List<TaskComponent> children() {
+        return children;
+    }
+    
+    public void skipChildren() {
+        children = null;
+        pending = null;
+    }
+}
+
+class TaskItem extends LinkedTaskComponent {
+    private Task task;
+    
+    public TaskItem(Task task) {
+        this.task = task;
+    }
+    
+    public Task getTask() {
+        return task;
+    }
+    
+    @Override
+    public void add(TaskComponent component) {
+        System.out.println("Cannot add to a TaskItem");
+    }
+    
+    @Override
+    public void remove(TaskComponent component) {
+        System.out.println("Cannot remove from a TaskItem");
+    }
+    
+    @Override
+    public void display(int level) {
+        TreeRenderer.displayOnConsole(Collections.singletonList(this), level);
+    }
+    
+    @Override
+    public TaskStats aggregate(LocalDate asOf) {
+        TaskStats stats = new TaskStats();
+        stats.add(task, asOf);
+        return stats;
+    }
+}
+
+
+class Project extends LinkedTaskComponent {
+    // Held whenever a project changes parent, so concurrent moves cannot form a cycle and
+    // depth and root stay consistent
+    private static final Object STRUCTURE_LOCK = new Object();
+    
+    private String name;
+    private final ChildList tasks = new ChildList(this);
+    private volatile TaskIndex index;
+    private final AtomicLong statsVersion = new AtomicLong();
+    private volatile CachedStats cachedStats;
+    // Kept current for every project in a subtree that is attached, moved or detached
+    private volatile int depth;
+    private volatile Project root = this;
+    
+    private static final class CachedStats {
+        final TaskStats stats;
+        final LocalDate asOf;
+        final long version;
+        
+        CachedStats(TaskStats stats, LocalDate asOf, long version) {
+            this.stats = stats;
+            this.asOf = asOf;
+            this.version = version;
+        }
+    }
+    
+    public Project(String name) {
+        this.name = name;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    // Use TaskManagementSystem.renameProject so the name index and journal follow
+    void setName(String name) {
+        this.name = name;
+    }
+    
+    // A component can only be in one project at a time; use moveTo to change projects
+    @Override
+    public void add(TaskComponent component) {
+        LinkedTaskComponent child = linked(component);
+        if (component instanceof Project) {
+            synchronized (STRUCTURE_LOCK) {
+                checkNotAncestor((Project) component, this);
+                tasks.add(child);
+                updatePositions((Project) component);
+            }
+        } else {
+            tasks.add(child);
+        }
+        invalidateStats();
+        if (index != null) {
+            index.register(component, this);
+        }
+    }
+    
+    // Appends in one step: one lock on the child list, one stats invalidation
+    public void addAll(List<? extends TaskComponent> components) {
+        List<LinkedTaskComponent> linked = new ArrayList<>(components.size());
+        boolean hasProjects = false;
+        for (TaskComponent component : components) {
+            linked.add(linked(component));
+            hasProjects |= component instanceof Project;
+        }
+        if (hasProjects) {
+            synchronized (STRUCTURE_LOCK) {
+                for (TaskComponent component : components) {
+                    if (component instanceof Project) {
+                        checkNotAncestor((Project) component, this);
+                    }
+                }
+                tasks.addAll(linked);
+                for (TaskComponent component : components) {
+                    if (component instanceof Project) {
+                        updatePositions((Project) component);
+                    }
+                }
+            }
+        } else {
+            tasks.addAll(linked);
+        }
+        invalidateStats();
+        if (index != null) {
+            index.registerAll(components, this);
+        }
+    }
+    
+    @Override
+    public void remove(TaskComponent component) {
+        if (!(component instanceof LinkedTaskComponent) || !unlink((LinkedTaskComponent) component)) {
+            return;
+        }
+        invalidateStats();
+        if (index != null) {
+            index.removed(this, component);
+        }
+    }
+    
+    // Takes a direct child out like remove, but without journaling the removal, for a task
+    // moving into the system's compact archive; false if it is not a child
+    boolean detach(TaskComponent component) {
+        if (!(component instanceof LinkedTaskComponent) || !unlink((LinkedTaskComponent) component)) {
+            return false;
+        }
+        invalidateStats();
+        if (index != null) {
+            index.unregister(component);
+        }
+        return true;
+    }
+    
+    // Moves a direct child to the end of another project without re-registering anything
+    // inside it; false if the component is not a child of this project
+    public boolean moveTo(TaskComponent component, Project target) {
+        return moveTo(component, target, null);
+    }
+    
+    // As above, placing it right before 'before', a child of the target
+    public boolean moveTo(TaskComponent component, Project target, TaskComponent before) {
+        LinkedTaskComponent child = linked(component);
+        LinkedTaskComponent anchor = before == null ? null : linked(before);
+        if (component instanceof Project) {
+            synchronized (STRUCTURE_LOCK) {
+                checkNotAncestor((Project) component, target);
+                if (!moveChild(child, target, anchor)) {
+                    return false;
+                }
+                if (target != this) {
+                    updatePositions((Project) component);
+                }
+                return true;
+            }
+        }
+        return moveChild(child, target, anchor);
+    }
+    
+    private boolean moveChild(LinkedTaskComponent child, Project target, LinkedTaskComponent anchor) {
+        TaskIndex index = this.index;
+        if (index != target.index) {
+            // Different systems: a plain remove and add, so both indexes stay right
+            if (child.parent != this) {
+                return false;
+            }
+            remove(child);
+            target.add(child);
+            if (anchor != null) {
+                target.reorder(child, anchor);
+            }
+            return true;
+        }
+        if (!ChildList.move(child, tasks, target.tasks, anchor)) {
+            return false;
+        }
+        invalidateStats();
+        if (target != this) {
+            target.invalidateStats();
+        }
+        if (index != null) {
+            index.moved(this, target, child, anchor);
+        }
+        return true;
+    }
+    
+    // Places a direct child right before 'before', or last if before is null
+    public boolean reorder(TaskComponent component, TaskComponent before) {
+        return moveTo(component, this, before);
+    }
+    
+    // Empties a project that is not attached to a system, handing back its children detached
+    List<TaskComponent> takeChildren() {
+        synchronized (STRUCTURE_LOCK) {
+            List<TaskComponent> children = tasks.clear();
+            for (TaskComponent child : children) {
+                if (child instanceof Project) {
+                    updatePositions((Project) child);
+                }
+            }
+            return children;
+        }
+    }
+    
+    private boolean unlink(LinkedTaskComponent component) {
+        if (!(component instanceof Project)) {
+            return tasks.remove(component);
+        }
+        synchronized (STRUCTURE_LOCK) {
+            if (!tasks.remove(component)) {
+                return false;
+            }
+            updatePositions((Project) component);
+            return true;
+        }
+    }
+    
+    // A detached project is the root of its own tree, so adding one is a single comparison
+    private static void checkNotAncestor(Project project, Project target) {
+        if (target == project || target.isDescendantOf(project)) {
+            throw new IllegalArgumentException("Cannot put project '" + project.getName() + "' inside itself");
+        }
+    }
+    
+    // Recomputes depth and root below a project that just changed parent. Only subprojects
+    // are visited, and only the moved subtree is affected.
+    private static void updatePositions(Project top) {
+        Deque<Project> pending = new ArrayDeque<>();
+        pending.push(top);
+        while (!pending.isEmpty()) {
+            Project project = pending.pop();
+            Project parent = project.parent;
+            project.depth = parent == null ? 0 : parent.depth + 1;
+            project.root = parent == null ? project : parent.root;
+            for (TaskComponent child : project.getTasks()) {
+                if (child instanceof Project) {
+                    pending.push((Project) child);
+                }
+            }
+        }
+    }
+    
+    // Nesting level below the top-level project, which is at 0
+    public int getDepth() {
+        return depth;
+    }
+    
+    // The top-level project of the tree this project is in; itself when it has no parent
+    public Project getRoot() {
+        return root;
+    }
+    
+    // The projects from the top-level project down to and including this one, in O(depth)
+    public List<Project> getPathFromRoot() {
+        List<Project> path = new ArrayList<>(depth + 1);
+        for (Project project = this; project != null; project = project.parent) {
+            path.add(project);
+        }
+        Collections.reverse(path);
+        return Collections.unmodifiableList(path);
+    }
+    
+    // True for a strict descendant; walks up only by the difference in depth
+    public boolean isDescendantOf(Project ancestor) {
+        int steps = depth - ancestor.depth;
+        if (steps <= 0 || root != ancestor.root) {
+            return false;
+        }
+        Project project = this;
+        while (steps-- > 0 && project != null) {
+            project = project.parent;
+        }
+        return project == ancestor;
+    }
+    
+    private static LinkedTaskComponent linked(TaskComponent component) {
+        if (!(component instanceof LinkedTaskComponent)) {
+            throw new IllegalArgumentException("Projects can only contain tasks and projects");
+        }
+        return (LinkedTaskComponent) component;
+    }
+    
+    // Called when this project is attached to (or detached from) a system
+    void setIndex(TaskIndex index) {
+        this.index = index;
+    }
+    
+    @Override
+    public void display(int level) {
+        TreeRenderer.displayOnConsole(Collections.singletonList(this), level);
+    }
+    
+    // Immutable snapshot of the children; repeated calls without changes in between do not copy
+    public List<TaskComponent> getTasks() {
+        return tasks.snapshot();
+    }
+    
+    // Subtrees reuse their cached stats until invalidated. Adding, removing or moving children
+    // and every change made through TaskManagementSystem invalidate them; a Task changed
+    // directly through its own setters does not know its project, so whoever does that must
+    // call invalidateStats() on the project afterwards.
+    @Override
+    public TaskStats aggregate(LocalDate asOf) {
+        return ForkJoinPool.commonPool().invoke(new ProjectStatsTask(this, asOf));
+    }
+    
+    // Drops the cached roll-up of this project and every ancestor, the only ones a change affects
+    public void invalidateStats() {
+        for (Project project = this; project != null; project = project.parent) {
+            project.statsVersion.incrementAndGet();
+        }
+    }
+    
+    long getStatsVersion() {
+        return statsVersion.get();
+    }
+    
+    TaskStats getCachedStats(LocalDate asOf) {
+        CachedStats cached = cachedStats;
+        if (cached != null && cached.version == statsVersion.get() && cached.asOf.equals(asOf)) {
+            return cached.stats;
+        }
+        return null;
+    }
+    
+    // Ignored if the project changed while the stats were being computed
+    void cacheStats(TaskStats stats, LocalDate asOf, long version) {
+        if (statsVersion.get() == version) {
+            cachedStats = new CachedStats(stats, asOf, version);
+        }
+    }
+}
+
+// Roll-up statistics for a subtree: task counts per state and per assignee, plus the
+// number of overdue tasks. Instances handed out by aggregate() are never modified.
+class TaskStats {
+    private final Map<String, Long> byState = new HashMap<>();
+    private final Map<String, Long> byAssignee = new HashMap<>();
+    private long overdue;
+    private long total;
+    // asOf as an ISO string, compared against due dates without parsing them
+    private LocalDate asOf;
+    private String asOfText;
+    
+    void add(Task task, LocalDate asOf) {
+        TaskState state = task.getTaskState();
+        byState.merge(state.getDescription(), 1L, Long::sum);
+        if (task.getAssignee() != null) {
+            byAssignee.merge(task.getAssignee(), 1L, Long::sum);
+        }
+        if (task.getWorkflow().getNextState(state) != null && isBefore(task.getDueDate(), asOf)) {
+            overdue++;
+        }
+        total++;
+    }
+    
+    void addAll(TaskStats other) {
+        other.byState.forEach((key, count) -> byState.merge(key, count, Long::sum));
+        other.byAssignee.forEach((key, count) -> byAssignee.merge(key, count, Long::sum));
+        overdue += other.overdue;
+        total += other.total;
+    }
+    
+    // ISO dates (YYYY-MM-DD) sort correctly as strings; anything not shaped like one is
+    // never overdue, as when it failed to parse
+    private boolean isBefore(String dueDate, LocalDate asOf) {
+        if (dueDate == null || !isIsoDate(dueDate)) {
+            return false;
+        }
+        if (!asOf.equals(this.asOf)) {
+            this.asOf = asOf;
+            asOfText = asOf.toString();
+        }
+        return dueDate.compareTo(asOfText) < 0;
+    }
+    
+    private static boolean isIsoDate(String text) {
+        if (text.length() != 10 || text.charAt(4) != '-' || text.charAt(7) != '-') {
+            return false;
+        }
+        for (int i = 0; i < 10; i++) {
+            if (i != 4 && i != 7 && (text.charAt(i) < '0' || text.charAt(i) > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public Map<String, Long> getCountsByState() {
+        return Collections.unmodifiableMap(byState);
+    }
+    
+    public Map<String, Long> getLoadByAssignee() {
+        return Collections.unmodifiableMap(byAssignee);
+    }
+    
+    public long getOverdueCount() {
+        return overdue;
+    }
+    
+    public long getTotal() {
+        return total;
+    }
+    
+    @Override
+    public String toString() {
+        return "TaskStats [total=" + total + ", overdue=" + overdue + ", states=" + byState +
+               ", assignees=" + byAssignee + "]";
+    }
+}
+
+// Computes a project's stats on a ForkJoinPool: subprojects whose cached stats are still
+// valid are reused, stale ones are forked, and long runs of tasks are split into chunks.
+// Below MAX_FORK_DEPTH nested forks the rest of the subtree is summed in one sequential
+// pass, since every forked level adds frames to the worker's stack.
+// ForkJoinTask is Serializable, but these tasks are only ever run in-process
+@SuppressWarnings("serial")
+class ProjectStatsTask extends RecursiveTask<TaskStats> {
+    private static final int CHUNK_SIZE = 4096;
+    private static final int MAX_FORK_DEPTH = 64;
+    
+    private final Project project;
+    private final List<TaskComponent> children;
+    private final int from;
+    private final int to;
+    private final LocalDate asOf;
+    private final int forkDepth;
+    
+    ProjectStatsTask(Project project, LocalDate asOf) {
+        this(project, null, 0, 0, asOf, 0);
+    }
+    
+    private ProjectStatsTask(Project project, List<TaskComponent> children, int from, int to, LocalDate asOf,
+                             int forkDepth) {
+        this.project = project;
+        this.children = children;
+        this.from = from;
+        this.to = to;
+        this.asOf = asOf;
+        this.forkDepth = forkDepth;
+    }
+    
+    @Override
+    protected TaskStats compute() {
+        if (children == null) {
+            return computeProject();
+        }
+        // A chunk of a large child list
+        TaskStats stats = new TaskStats();
+        for (int i = from; i < to; i++) {
+            TaskComponent child = children.get(i);
+            if (child instanceof TaskItem) {
+                stats.add(((TaskItem) child).getTask(), asOf);
+            }
+        }
+        return stats;
+    }
+    
+    private TaskStats computeProject() {
+        TaskStats cached = project.getCachedStats(asOf);
+        if (cached != null) {
+            return cached;
+        }
+        if (forkDepth >= MAX_FORK_DEPTH) {
+            return computeSequentially(project, asOf);
+        }
+        long version = project.getStatsVersion();
+        List<TaskComponent> snapshot = project.getTasks();
+        List<ProjectStatsTask> forked = new ArrayList<>();
+        TaskStats stats = new TaskStats();
+        for (TaskComponent child : snapshot) {
+            if (child instanceof Project) {
+                Project sub = (Project) child;
+                TaskStats subStats = sub.getCachedStats(asOf);
+                if (subStats != null) {
+                    stats.addAll(subStats);
+                } else {
+                    forked.add(new ProjectStatsTask(sub, null, 0, 0, asOf, forkDepth + 1));
+                }
+            }
+        }
+        for (int start = 0; start < snapshot.size(); start += CHUNK_SIZE) {
+            forked.add(new ProjectStatsTask(project, snapshot, start, Math.min(start + CHUNK_SIZE, snapshot.size()), asOf,
+                                            forkDepth));
+        }
+        for (ProjectStatsTask task : invokeAll(forked)) {
+            stats.addAll(task.join());
+        }
+        project.cacheStats(stats, asOf, version);
+        return stats;
+    }
+    
+    // Stale projects are found in pre-order and summed in reverse, so every subproject is
+    // done before its parent; subtrees with valid cached stats are not entered
+    private static TaskStats computeSequentially(Project root, LocalDate asOf) {
+        List<Project> stale = new ArrayList<>();
+        ComponentWalk walk = ComponentWalk.of(root);
+        for (TaskComponent component = walk.next(); component != null; component = walk.next()) {
+            if (component instanceof Project) {
+                if (component != root && ((Project) component).getCachedStats(asOf) != null) {
+                    walk.skipChildren();
+                } else {
+                    stale.add((Project) component);
+                }
+            }
+        }
+        Map<Project, TaskStats> computed = new IdentityHashMap<>();
+        for (int i = stale.size() - 1; i >= 0; i--) {
+            Project project = stale.get(i);
+            long version = project.getStatsVersion();
+            TaskStats stats = new TaskStats();
+            for (TaskComponent child : project.getTasks()) {
+                if (child instanceof TaskItem) {
+                    stats.add(((TaskItem) child).getTask(), asOf);
+                } else if (child instanceof Project) {
+                    Project sub = (Project) child;
+                    TaskStats subStats = computed.get(sub);
+                    if (subStats == null) {
+                        subStats = sub.getCachedStats(asOf);
+                    }
+                    if (subStats == null) {
+                        // Added or changed after the walk
+                        subStats = sub.aggregate(asOf);
+                    }
+                    stats.addAll(subStats);
+                }
+            }
+            project.cacheStats(stats, asOf, version);
+            computed.put(project, stats);
+        }
+        return computed.get(root);
+    }
+}
+
+enum RenderFormat {
+    TEXT,
+    JSON_LINES,
+    CSV
+}
+
+// Streams the composite tree into one buffered Writer. Indent prefixes are cached and
+// fields are written piecewise, so rendering a node allocates nothing beyond the child
+// list of each project. Supports a depth limit, paging over nodes in pre-order and
+// cancellation from another thread.
+class TreeRenderer {
+    private static volatile String[] indents = {""};
+    // Shared by every console display; rebuilt only if System.out is replaced
+    private static PrintStream consoleStream;
+    private static TreeRenderer console;
+    
+    private final Writer out;
+    private final RenderFormat format;
+    private int maxDepth = Integer.MAX_VALUE;
+    private long offset;
+    private long limit = Long.MAX_VALUE;
+    private volatile boolean cancelled;
+    private long position;
+    private long written;
+    
+    public TreeRenderer(Writer out, RenderFormat format) {
+        this.out = out;
+        this.format = format;
+    }
+    
+    // Renders to System.out as the console menus expect, without closing it. One writer
+    // and encoder serve every call; render flushes, so nothing is left in the buffer
+    static synchronized void displayOnConsole(List<? extends TaskComponent> roots, int level) {
+        if (console == null || consoleStream != System.out) {
+            consoleStream = System.out;
+            console = new TreeRenderer(new BufferedWriter(new OutputStreamWriter(consoleStream, Charset.defaultCharset()), 8192),
+                                       RenderFormat.TEXT);
+        }
+        try {
+            console.render(roots, level);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+    
+    // Skips the first 'offset' nodes and stops after 'limit' nodes have been written
+    public void setPage(long offset, long limit) {
+        this.offset = offset;
+        this.limit = limit;
+    }
+    
+    public void cancel() {
+        cancelled = true;
+    }
+    
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    // Returns the number of nodes written
+    public long render(List<? extends TaskComponent> roots, int level) throws IOException {
+        position = 0;
+        written = 0;
+        if (format == RenderFormat.CSV) {
+            out.write("type,level,id,name,state,assignee,due\n");
+        }
+        ComponentWalk walk = new ComponentWalk(roots, maxDepth);
+        for (TaskComponent component = walk.next(); component != null; component = walk.next()) {
+            // Stop once the page is full or rendering was cancelled
+            if (cancelled || written >= limit) {
+                break;
+            }
+            if (position++ >= offset) {
+                if (component instanceof Project) {
+                    writeProject((Project) component, level + walk.depth());
+                } else if (component instanceof TaskItem) {
+                    writeTask(((TaskItem) component).getTask(), level + walk.depth());
+                }
+                written++;
+            }
+        }
+        out.flush();
+        return written;
+    }
+    
+    private void writeProject(Project project, int level) throws IOException {
+        switch (format) {
+            case TEXT:
+                out.write(indent(level));
+                out.write("Project: ");
+                out.write(project.getName());
+                break;
+            case JSON_LINES:
+                out.write("{\"type\":\"project\",\"level\":");
+                writeInt(level);
+                out.write(",\"name\":");
+                writeJson(out, project.getName());
+                out.write('}');
+                break;
+            case CSV:
+                out.write("project,");
+                writeInt(level);
+                out.write(',');
+                out.write(',');
+                writeCsv(out, project.getName());
+                out.write(",,,");
+                break;
+        }
+        out.write('\n');
+    }
+    
+    private void writeTask(Task task, int level) throws IOException {
+        String assignee = task.getAssignee();
+        switch (format) {
+            case TEXT:
+                out.write(indent(level));
+                out.write("- Task [id=");
+                out.write(task.getId());
+                out.write(", title=");
+                out.write(String.valueOf(task.getTitle()));
+                out.write(", state=");
+                out.write(task.getTaskState().getDescription());
+                out.write(", assignee=");
+                out.write(assignee != null ? assignee : "Unassigned");
+                out.write(", due=");
+                out.write(String.valueOf(task.getDueDate()));
+                out.write(']');
+                break;
+            case JSON_LINES:
+                out.write("{\"type\":\"task\",\"level\":");
+                writeInt(level);
+                out.write(",\"id\":");
+                writeJson(out, task.getId());
+                out.write(",\"title\":");
+                writeJson(out, task.getTitle());
+                out.write(",\"state\":");
+                writeJson(out, task.getTaskState().getDescription());
+                out.write(",\"assignee\":");
+                writeJson(out, assignee);
+                out.write(",\"due\":");
+                writeJson(out, task.getDueDate());
+                out.write('}');
+                break;
+            case CSV:
+                out.write("task,");
+                writeInt(level);
+                out.write(',');
+                writeCsv(out, task.getId());
+                out.write(',');
+                writeCsv(out, task.getTitle());
+                out.write(',');
+                writeCsv(out, task.getTaskState().getDescription());
+                out.write(',');
+                writeCsv(out, assignee);
+                out.write(',');
+                writeCsv(out, task.getDueDate());
+                break;
+        }
+        out.write('\n');
+    }
+    
+    private static String indent(int level) {
+        String[] cached = indents;
+        if (level >= cached.length) {
+            String[] grown = Arrays.copyOf(cached, Math.max(level + 1, cached.length * 2));
+            for (int i = cached.length; i < grown.length; i++) {
+                grown[i] = grown[i - 1] + "  ";
+            }
+            indents = grown;
+            cached = grown;
+        }
+        return cached[level];
+    }
+    
+    private void writeInt(int value) throws IOException {
+        if (value < 0) {
+            out.write('-');
+            value = -value;
+        }
+        if (value >= 10) {
+            writeInt(value / 10);
+        }
+        out.write('0' + value % 10);
+    }
+    
+    // Shared with TaskBulkIO, which reads the same escapes back
+    static void writeJson(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        // Characters that need no escape are written in runs, not one write per char
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            out.write(value, start, i - start);
+            start = i + 1;
+            if (c < 0x20) {
+                out.write("\\u00");
+                out.write(Character.forDigit(c >> 4, 16));
+                out.write(Character.forDigit(c & 0xF, 16));
+            } else {
+                out.write('\\');
+                out.write(c);
+            }
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+    
+    // Quotes fields with a comma, quote or line break, and empty ones so they read back as
+    // empty rather than null
+    static void writeCsv(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        int start = 0;
+        for (int i = value.indexOf('"'); i >= 0; i = value.indexOf('"', i + 1)) {
+            // Writes up to and including the quote, which starts the next run to double it
+            out.write(value, start, i + 1 - start);
+            start = i;
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
+
+// Global id -> task / id -> parent project index, kept up to date by Project.add/remove
+
+class TaskIndex {
+    // The item's parent pointer gives the task's project, so no second map is needed
+    private final Map<String, TaskItem> itemsById = new ConcurrentHashMap<>();
+    private final SecondaryTaskIndex secondary = new SecondaryTaskIndex();
+    private volatile TaskJournal journal;
+    
+    void setJournal(TaskJournal journal) {
+        this.journal = journal;
+    }
+    
+    public void register(TaskComponent component, Project parent) {
+        if (component instanceof TaskItem) {
+            registerTask((TaskItem) component, parent);
+            return;
+        }
+        TaskJournal journal = this.journal;
+        ComponentWalk walk = ComponentWalk.of(component);
+        for (TaskComponent next = walk.next(); next != null; next = walk.next()) {
+            Project owner = next == component ? parent : walk.parent();
+            if (next instanceof TaskItem) {
+                registerTask((TaskItem) next, owner);
+            } else if (next instanceof Project) {
+                Project project = (Project) next;
+                if (journal != null) {
+                    journal.projectAdded(owner, project);
+                }
+                project.setIndex(this);
+            }
+        }
+    }
+    
+    private void registerTask(TaskItem item, Project parent) {
+        Task task = item.getTask();
+        itemsById.put(task.getId(), item);
+        secondary.add(task);
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.taskAdded(parent, task);
+        }
+    }
+    
+    // Same as register for each component, taking the secondary index lock once
+    public void registerAll(List<? extends TaskComponent> components, Project parent) {
+        List<Task> added = new ArrayList<>(components.size());
+        TaskJournal journal = this.journal;
+        for (TaskComponent component : components) {
+            if (component instanceof TaskItem) {
+                Task task = ((TaskItem) component).getTask();
+                itemsById.put(task.getId(), (TaskItem) component);
+                added.add(task);
+                if (journal != null) {
+                    journal.taskAdded(parent, task);
+                }
+            } else {
+                register(component, parent);
+            }
+        }
+        secondary.addAll(added);
+    }
+    
+    public void unregister(TaskComponent component) {
+        if (component instanceof TaskItem) {
+            unregisterTask((TaskItem) component);
+            return;
+        }
+        ComponentWalk walk = ComponentWalk.of(component);
+        for (TaskComponent next = walk.next(); next != null; next = walk.next()) {
+            if (next instanceof TaskItem) {
+                unregisterTask((TaskItem) next);
+            } else if (next instanceof Project) {
+                ((Project) next).setIndex(null);
+            }
+        }
+    }
+    
+    private void unregisterTask(TaskItem item) {
+        Task task = item.getTask();
+        // Only drop the entry if it still points at this item
+        if (itemsById.remove(task.getId(), item)) {
+            secondary.remove(task);
+        }
+    }
+    
+    // Called by Project.remove for a direct child
+    public void removed(Project parent, TaskComponent component) {
+        unregister(component);
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.componentRemoved(parent, component);
+        }
+    }
+    
+    // Called by Project.moveTo; the moved subtree stays registered as it is
+    public void moved(Project from, Project to, TaskComponent component, TaskComponent before) {
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.componentMoved(from, to, component, before);
+        }
+    }
+    
+    public TaskItem findItem(String id) {
+        return itemsById.get(id);
+    }
+    
+    public Task findTask(String id) {
+        TaskItem item = itemsById.get(id);
+        return item == null ? null : item.getTask();
+    }
+    
+    public Project findParent(String id) {
+        TaskItem item = itemsById.get(id);
+        return item == null ? null : item.getParent();
+    }
+    
+    public int size() {
+        return itemsById.size();
+    }
+    
+    public SecondaryTaskIndex getSecondary() {
+        return secondary;
+    }
+}
+
+// Assignee, state and due date indexes over the tasks in TaskIndex. Each task gets a
+// dense ordinal; every index bucket is a BitSet of ordinals, so a query is a few
+// bitmap ANDs/ORs over the matching buckets instead of a walk over the tree. Queries
+// share a read lock and run alongside each other; changes take the write lock.
+class SecondaryTaskIndex {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private Task[] tasks = new Task[64];
+    private String[] indexedAssignees = new String[64];
+    private TaskState[] indexedStates = new TaskState[64];
+    private int[] freeOrdinals = new int[16];
+    private int freeCount;
+    private int nextOrdinal;
+    private final BitSet live = new BitSet();
+    // One sorted ordinal list per assignee, so queries come back in ordinal order without
+    // a sort. A bitmap per assignee would cost a bit per task for every member, however
+    // few tasks each one has; states and due dates are few enough for bitmaps.
+    private final Map<String, Postings> byAssignee = new HashMap<>();
+    private final Map<TaskState, BitSet> byState = new HashMap<>();
+    // ISO dates (YYYY-MM-DD) sort correctly as strings
+    private final TreeMap<String, BitSet> byDueDate = new TreeMap<>();
+    // Per-thread buffer for due-date range unions, since queries run side by side under the read lock
+    private static final ThreadLocal<BitSet> scratch = ThreadLocal.withInitial(BitSet::new);
+    
+    public void addAll(List<Task> added) {
+        lock.writeLock().lock();
+        try {
+            for (Task task : added) {
+                index(task);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void add(Task task) {
+        lock.writeLock().lock();
+        try {
+            index(task);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void remove(Task task) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.get(task.getId());
+            if (ordinal != null && tasks[ordinal] == task) {
+                removeOrdinal(ordinal);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Same as update for each task, taking the lock once
+    public void updateAll(List<Task> changed) {
+        lock.writeLock().lock();
+        try {
+            for (Task task : changed) {
+                reindex(task);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Moves the task between buckets after its assignee or state changed
+    public void update(Task task) {
+        lock.writeLock().lock();
+        try {
+            reindex(task);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Any argument may be null to leave that dimension unrestricted; due bounds are inclusive
+    public List<Task> find(String assignee, TaskState state, String dueFrom, String dueTo) {
+        lock.readLock().lock();
+        try {
+            return assignee != null ? findByAssignee(assignee, state, dueFrom, dueTo) : findAll(state, dueFrom, dueTo);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void index(Task task) {
+        Integer existing = ordinals.get(task.getId());
+        if (existing != null) {
+            removeOrdinal(existing);
+        }
+        int ordinal = allocate();
+        ordinals.put(task.getId(), ordinal);
+        tasks[ordinal] = task;
+        live.set(ordinal);
+        indexedAssignees[ordinal] = task.getAssignee();
+        indexedStates[ordinal] = task.getTaskState();
+        addPosting(task.getAssignee(), ordinal);
+        set(byState, task.getTaskState(), ordinal);
+        if (task.getDueDate() != null) {
+            byDueDate.computeIfAbsent(task.getDueDate(), k -> new BitSet()).set(ordinal);
+        }
+    }
+    
+    private void reindex(Task task) {
+        Integer boxed = ordinals.get(task.getId());
+        if (boxed == null || tasks[boxed] != task) {
+            return;
+        }
+        int ordinal = boxed;
+        String assignee = task.getAssignee();
+        if (!Objects.equals(assignee, indexedAssignees[ordinal])) {
+            removePosting(indexedAssignees[ordinal], ordinal);
+            addPosting(assignee, ordinal);
+            indexedAssignees[ordinal] = assignee;
+        }
+        TaskState state = task.getTaskState();
+        if (state != indexedStates[ordinal]) {
+            clear(byState, indexedStates[ordinal], ordinal);
+            set(byState, state, ordinal);
+            indexedStates[ordinal] = state;
+        }
+    }
+    
+    // Buckets only ever hold live ordinals, so a state-only or unrestricted query reads the
+    // shared bitmap as is; only a due-date range needs a union, built in the thread's buffer
+    private List<Task> findAll(TaskState state, String dueFrom, String dueTo) {
+        BitSet result = state != null ? byState.get(state) : live;
+        if (result == null) {
+            return new ArrayList<>();
+        }
+        if (dueFrom != null || dueTo != null) {
+            Map<String, BitSet> range;
+            if (dueFrom != null && dueTo != null) {
+                range = byDueDate.subMap(dueFrom, true, dueTo, true);
+            } else if (dueFrom != null) {
+                range = byDueDate.tailMap(dueFrom, true);
+            } else {
+                range = byDueDate.headMap(dueTo, true);
+            }
+            BitSet due = scratch.get();
+            due.clear();
+            for (BitSet bucket : range.values()) {
+                due.or(bucket);
+            }
+            if (state != null) {
+                due.and(result);
+            }
+            result = due;
+        }
+        List<Task> matches = new ArrayList<>(result.cardinality());
+        for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+            matches.add(tasks[i]);
+        }
+        return matches;
+    }
+    
+    // Filters the assignee's own tasks instead of intersecting bitmaps; O(tasks assigned)
+    private List<Task> findByAssignee(String assignee, TaskState state, String dueFrom, String dueTo) {
+        Postings postings = byAssignee.get(assignee);
+        if (postings == null) {
+            return new ArrayList<>();
+        }
+        List<Task> matches = new ArrayList<>(postings.size);
+        for (int i = 0; i < postings.size; i++) {
+            int ordinal = postings.ordinals[i];
+            if (state != null && indexedStates[ordinal] != state) {
+                continue;
+            }
+            String due = tasks[ordinal].getDueDate();
+            if ((dueFrom != null || dueTo != null) && (due == null ||
+                    (dueFrom != null && due.compareTo(dueFrom) < 0) || (dueTo != null && due.compareTo(dueTo) > 0))) {
+                continue;
+            }
+            matches.add(tasks[ordinal]);
+        }
+        return matches;
+    }
+    
+    private void addPosting(String assignee, int ordinal) {
+        if (assignee == null) {
+            return;
+        }
+        Postings postings = byAssignee.computeIfAbsent(assignee, k -> new Postings());
+        if (postings.size == postings.ordinals.length) {
+            postings.ordinals = Arrays.copyOf(postings.ordinals, postings.size * 2);
+        }
+        // New ordinals append; only reused ones land in the middle
+        int slot = postings.size;
+        if (slot > 0 && postings.ordinals[slot - 1] > ordinal) {
+            slot = -Arrays.binarySearch(postings.ordinals, 0, postings.size, ordinal) - 1;
+            System.arraycopy(postings.ordinals, slot, postings.ordinals, slot + 1, postings.size - slot);
+        }
+        postings.ordinals[slot] = ordinal;
+        postings.size++;
+    }
+    
+    private void removePosting(String assignee, int ordinal) {
+        if (assignee == null) {
+            return;
+        }
+        Postings postings = byAssignee.get(assignee);
+        if (postings == null) {
+            return;
+        }
+        int slot = Arrays.binarySearch(postings.ordinals, 0, postings.size, ordinal);
+        if (slot < 0) {
+            return;
+        }
+        System.arraycopy(postings.ordinals, slot + 1, postings.ordinals, slot, --postings.size - slot);
+        if (postings.size == 0) {
+            byAssignee.remove(assignee);
+        }
+    }
+    
+    private static final class Postings {
+        int[] ordinals = new int[4];
+        int size;
+    }
+    
+    private void removeOrdinal(int ordinal) {
+        Task task = tasks[ordinal];
+        ordinals.remove(task.getId());
+        live.clear(ordinal);
+        removePosting(indexedAssignees[ordinal], ordinal);
+        clear(byState, indexedStates[ordinal], ordinal);
+        if (task.getDueDate() != null) {
+            clear(byDueDate, task.getDueDate(), ordinal);
+        }
+        tasks[ordinal] = null;
+        indexedAssignees[ordinal] = null;
+        indexedStates[ordinal] = null;
+        if (freeCount == freeOrdinals.length) {
+            freeOrdinals = Arrays.copyOf(freeOrdinals, freeCount * 2);
+        }
+        freeOrdinals[freeCount++] = ordinal;
+    }
+    
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeOrdinals[--freeCount];
+        }
+        if (nextOrdinal == tasks.length) {
+            int capacity = tasks.length * 2;
+            tasks = Arrays.copyOf(tasks, capacity);
+            indexedAssignees = Arrays.copyOf(indexedAssignees, capacity);
+            indexedStates = Arrays.copyOf(indexedStates, capacity);
+        }
+        return nextOrdinal++;
+    }
+    
+    private static <K> void set(Map<K, BitSet> index, K key, int ordinal) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> new BitSet()).set(ordinal);
+        }
+    }
+    
+    private static <K> void clear(Map<K, BitSet> index, K key, int ordinal) {
+        if (key == null) {
+            return;
+        }
+        BitSet bits = index.get(key);
+        if (bits != null) {
+            bits.clear(ordinal);
+            if (bits.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
+
+// Task ID generation
+
+interface TaskIdGenerator {
+    String nextId();
+    
+    // Reserves 'count' ids at once for bulk creation; the i-th id is apply(i)
+    default IntFunction<String> reserveIds(int count) {
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = nextId();
+        }
+        return i -> ids[i];
+    }
+    
+    // Shared default so tasks created by members and by the system never collide
+    static TaskIdGenerator shared() {
+        return SequenceTaskIdGenerator.SHARED;
+    }
+}
+
+// Hands out ranges of ids that must never be reused, even across restarts
+interface IdBlockStore {
+    long reserve(int blockSize);
+}
+
+class InMemoryIdBlockStore implements IdBlockStore {
+    private final AtomicLong next;
+    
+    public InMemoryIdBlockStore(long start) {
+        this.next = new AtomicLong(start);
+    }
+    
+    @Override
+    public long reserve(int blockSize) {
+        return next.getAndAdd(blockSize);
+    }
+}
+
+// Persists the high-water mark before a block is handed out, so a restart
+// continues after the last reserved block instead of reusing ids. The mark is on disk,
+// file and rename both, before reserve returns: the write-ahead log is forced, so ids
+// past a mark lost in a crash could already be in it.
+class FileIdBlockStore implements IdBlockStore {
+    private final Path file;
+    
+    public FileIdBlockStore(Path file) {
+        this.file = file;
+    }
+    
+    @Override
+    public synchronized long reserve(int blockSize) {
+        try {
+            long start = 1;
+            if (Files.exists(file)) {
+                start = Long.parseLong(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            ByteBuffer mark = ByteBuffer.wrap(Long.toString(start + blockSize).getBytes(StandardCharsets.UTF_8));
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (mark.hasRemaining()) {
+                    channel.write(mark);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+                directory.force(true);
+            }
+            return start;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not reserve task ids from " + file, e);
+        }
+    }
+}
+
+// Sequential ids handed out from reserved blocks; the fast path is a single getAndIncrement
+class SequenceTaskIdGenerator implements TaskIdGenerator {
+    // In memory only, so it starts again at 1 on every run; its own prefix keeps tasks made
+    // before TaskStore.recover from taking ids the store's TASK- generator already used
+    static final SequenceTaskIdGenerator SHARED =
+        new SequenceTaskIdGenerator("LOCAL-", new InMemoryIdBlockStore(1), 1024);
+    
+    private static final class Block {
+        final AtomicLong cursor;
+        final long end;
+        
+        Block(long start, long end) {
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+    
+    private final String prefix;
+    private final IdBlockStore store;
+    private final int blockSize;
+    private volatile Block block = new Block(0, 0);
+    
+    public SequenceTaskIdGenerator(String prefix, IdBlockStore store, int blockSize) {
+        this.prefix = prefix;
+        this.store = store;
+        this.blockSize = blockSize;
+    }
+    
+    @Override
+    public String nextId() {
+        return prefix + nextValue();
+    }
+    
+    // One contiguous range straight from the store; the ids are only formatted when asked for
+    @Override
+    public IntFunction<String> reserveIds(int count) {
+        long start = store.reserve(count);
+        return i -> prefix + (start + i);
+    }
+    
+    long nextValue() {
+        while (true) {
+            Block current = block;
+            long value = current.cursor.getAndIncrement();
+            if (value < current.end) {
+                return value;
+            }
+            refill(current);
+        }
+    }
+    
+    private synchronized void refill(Block exhausted) {
+        if (block == exhausted) {
+            long start = store.reserve(blockSize);
+            block = new Block(start, start + blockSize);
+        }
+    }
+}
+
+// Time-ordered ids: 41 bits of milliseconds, 10 bits of node id, 12 bits of counter.
+// If the clock stalls or goes backwards the counter borrows from the next millisecond.
+class SnowflakeTaskIdGenerator implements TaskIdGenerator {
+    private static final long EPOCH = 1704067200000L; // 2024-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    
+    private final String prefix;
+    private final long node;
+    private final AtomicLong last = new AtomicLong();
+    
+    public SnowflakeTaskIdGenerator(String prefix, int node) {
+        if (node < 0 || node >= (1 << NODE_BITS)) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + ((1 << NODE_BITS) - 1));
+        }
+        this.prefix = prefix;
+        this.node = node;
+    }
+    
+    @Override
+    public String nextId() {
+        return prefix + nextValue();
+    }
+    
+    long nextValue() {
+        // last holds (timestamp << SEQUENCE_BITS) | sequence
+        long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+        while (true) {
+            long previous = last.get();
+            long next = now > previous ? now : previous + 1;
+            if (last.compareAndSet(previous, next)) {
+                long timestamp = next >>> SEQUENCE_BITS;
+                long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+                return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence;
+            }
+        }
+    }
+}
+
+// 4. Observer Pattern
+
+interface TaskObserver {
+    void update(Task task);
+    
+    // One notification for a bulk change such as an import; the list must not be modified
+    default void updateBatch(List<Task> tasks) {
+        for (Task task : tasks) {
+            update(task);
+        }
+    }
+    
+    // Due date reminder from a RecurrenceScheduler; treated as a plain update unless overridden
+    default void remind(Task task, ReminderType type) {
+        update(task);
+    }
+}
+
+enum ReminderType {
+    DUE,      // the due date has started
+    OVERDUE   // the due date has passed and the task is not completed
+}
+
+class TaskEvent {
+    private final Task task;
+    private final long publishedAt;
+    
+    public TaskEvent(Task task) {
+        this.task = task;
+        this.publishedAt = System.nanoTime();
+    }
+    
+    public Task getTask() {
+        return task;
+    }
+    
+    public long getPublishedAt() {
+        return publishedAt;
+    }
+}
+
+enum BackpressurePolicy {
+    BLOCK,     // wait for space in the buffer
+    DROP,      // discard the event when the buffer is full
+    COALESCE   // skip the event if the same task is already waiting, otherwise block
+}
+
+// Bounded, batched event delivery. A drain is scheduled on the executor only while
+// events are pending, so any executor works, including a virtual-thread-per-task one.
+class TaskEventBus {
+    private final ArrayBlockingQueue<TaskEvent> buffer;
+    private final Executor executor;
+    private final int batchSize;
+    private final BackpressurePolicy policy;
+    private final Consumer<TaskEvent> sink;
+    private final Map<Task, Boolean> pendingTasks = new ConcurrentHashMap<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile long lastLagNanos;
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    
+    public TaskEventBus(Executor executor, int capacity, int batchSize,
+                        BackpressurePolicy policy, Consumer<TaskEvent> sink) {
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.policy = policy;
+        this.sink = sink;
+    }
+    
+    public void publish(Task task) {
+        published.increment();
+        if (policy == BackpressurePolicy.COALESCE && pendingTasks.putIfAbsent(task, Boolean.TRUE) != null) {
+            coalesced.increment();
+            return;
+        }
+        TaskEvent event = new TaskEvent(task);
+        if (policy == BackpressurePolicy.DROP) {
+            if (!buffer.offer(event)) {
+                dropped.increment();
+                return;
+            }
+        } else {
+            try {
+                buffer.put(event);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pendingTasks.remove(task);
+                dropped.increment();
+                return;
+            }
+        }
+        scheduleDrain();
+    }
+    
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+    
+    private void drain() {
+        List<TaskEvent> batch = new ArrayList<>(batchSize);
+        while (true) {
+            while (buffer.drainTo(batch, batchSize) > 0) {
+                for (TaskEvent event : batch) {
+                    if (policy == BackpressurePolicy.COALESCE) {
+                        pendingTasks.remove(event.getTask());
+                    }
+                    recordLag(System.nanoTime() - event.getPublishedAt());
+                    // One failing observer must not stop delivery for everything after it
+                    try {
+                        sink.accept(event);
+                        delivered.increment();
+                    } catch (RuntimeException e) {
+                        failed.increment();
+                    }
+                }
+                batch.clear();
+            }
+            draining.set(false);
+            // An event may have arrived after the last drainTo but before the flag was cleared
+            if (buffer.isEmpty() || !draining.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+    
+    // Delivers everything buffered so far before returning, on the caller's thread unless
+    // a drain is already running on the executor
+    public void flush() {
+        while (!buffer.isEmpty() || draining.get()) {
+            if (draining.compareAndSet(false, true)) {
+                drain();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+    
+    private void recordLag(long lag) {
+        lastLagNanos = lag;
+        long max = maxLagNanos.get();
+        while (lag > max && !maxLagNanos.compareAndSet(max, lag)) {
+            max = maxLagNanos.get();
+        }
+    }
+    
+    public int getQueueDepth() {
+        return buffer.size();
+    }
+    
+    public long getPublishedCount() {
+        return published.sum();
+    }
+    
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+    
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+    
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+    
+    // Events whose delivery threw; they are not retried
+    public long getFailedCount() {
+        return failed.sum();
+    }
+    
+    public long getLastLagNanos() {
+        return lastLagNanos;
+    }
+    
+    public long getMaxLagNanos() {
+        return maxLagNanos.get();
+    }
+}
+
+// Dispatch table for observers. Broadcast observers see every event; the others
+// are looked up by the task's assignee, its project (and ancestors) and its new state.
+class ObserverRegistry {
+    private final List<TaskObserver> broadcast = new CopyOnWriteArrayList<>();
+    // The observers in broadcast, so other matches can skip them without scanning the list
+    private final Set<TaskObserver> broadcastSet = ConcurrentHashMap.newKeySet();
+    private final Map<String, List<TaskObserver>> byAssignee = new ConcurrentHashMap<>();
+    private final Map<Project, List<TaskObserver>> byProject = new ConcurrentHashMap<>();
+    private final Map<String, List<TaskObserver>> byState = new ConcurrentHashMap<>();
+    private volatile TaskMetrics metrics;
+    
+    // Times every observer call while set; null turns timing off again
+    public void setMetrics(TaskMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    public void addBroadcast(TaskObserver observer) {
+        broadcastSet.add(observer);
+        broadcast.add(observer);
+    }
+    
+    public void removeBroadcast(TaskObserver observer) {
+        broadcast.remove(observer);
+        if (!broadcast.contains(observer)) {
+            broadcastSet.remove(observer);
+        }
+    }
+    
+    public void subscribeToAssignee(String assignee, TaskObserver observer) {
+        byAssignee.computeIfAbsent(assignee, k -> new CopyOnWriteArrayList<>()).add(observer);
+    }
+    
+    public void subscribeToProject(Project project, TaskObserver observer) {
+        byProject.computeIfAbsent(project, k -> new CopyOnWriteArrayList<>()).add(observer);
+    }
+    
+    // Matches on the state a task is in after the change, whatever state it came from; a
+    // task that stays in the state, e.g. on reassignment, matches again
+    public void subscribeToState(String stateDescription, TaskObserver observer) {
+        byState.computeIfAbsent(stateDescription, k -> new CopyOnWriteArrayList<>()).add(observer);
+    }
+    
+    public void unsubscribeFromAssignee(String assignee, TaskObserver observer) {
+        List<TaskObserver> observers = byAssignee.get(assignee);
+        if (observers != null) {
+            observers.remove(observer);
+        }
+    }
+    
+    public void unsubscribe(TaskObserver observer) {
+        removeBroadcast(observer);
+        removeFrom(byAssignee, observer);
+        removeFrom(byProject, observer);
+        removeFrom(byState, observer);
+    }
+    
+    private static <K> void removeFrom(Map<K, List<TaskObserver>> table, TaskObserver observer) {
+        for (List<TaskObserver> observers : table.values()) {
+            observers.remove(observer);
+        }
+    }
+    
+    // Broadcast observers get the whole batch; assignee, state and project subscribers get
+    // the tasks that match them, with projects matching tasks anywhere beneath them
+    public void dispatchBatch(List<Task> tasks, Function<Task, Project> parentOf) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        TaskMetrics metrics = this.metrics;
+        for (TaskObserver observer : broadcast) {
+            notifyBatch(observer, tasks, metrics);
+        }
+        Map<TaskObserver, List<Task>> matched = new HashMap<>();
+        // Ancestor walks are done once per distinct parent project
+        Map<Project, List<TaskObserver>> watchersByParent = byProject.isEmpty() ? null : new IdentityHashMap<>();
+        for (Task task : tasks) {
+            if (task.getAssignee() != null) {
+                addMatches(matched, byAssignee.get(task.getAssignee()), task);
+            }
+            addMatches(matched, byState.get(task.getTaskState().getDescription()), task);
+            if (watchersByParent != null) {
+                addMatches(matched, watchersByParent.computeIfAbsent(parentOf.apply(task), this::projectWatchers), task);
+            }
+        }
+        boolean skipBroadcast = !broadcastSet.isEmpty();
+        matched.forEach((observer, batch) -> {
+            if (!skipBroadcast || !broadcastSet.contains(observer)) {
+                notifyBatch(observer, batch, metrics);
+            }
+        });
+    }
+    
+    // Subscribers of the project and all its ancestors, each once
+    private List<TaskObserver> projectWatchers(Project parent) {
+        Matches watchers = new Matches();
+        for (Project project = parent; project != null; project = project.getParent()) {
+            watchers.add(byProject.get(project));
+        }
+        return watchers.list;
+    }
+    
+    private static void notifyBatch(TaskObserver observer, List<Task> tasks, TaskMetrics metrics) {
+        if (metrics == null) {
+            observer.updateBatch(tasks);
+            return;
+        }
+        long start = System.nanoTime();
+        observer.updateBatch(tasks);
+        metrics.recordDispatch(observer, start);
+    }
+    
+    // A null reminder type means an ordinary update
+    private static void notify(TaskObserver observer, Task task, ReminderType reminder, TaskMetrics metrics) {
+        long start = metrics != null ? System.nanoTime() : 0;
+        if (reminder == null) {
+            observer.update(task);
+        } else {
+            observer.remind(task, reminder);
+        }
+        if (metrics != null) {
+            metrics.recordDispatch(observer, start);
+        }
+    }
+    
+    private static void addMatches(Map<TaskObserver, List<Task>> matched, List<TaskObserver> bucket, Task task) {
+        if (bucket == null) {
+            return;
+        }
+        for (TaskObserver observer : bucket) {
+            List<Task> batch = matched.computeIfAbsent(observer, k -> new ArrayList<>());
+            if (batch.isEmpty() || batch.get(batch.size() - 1) != task) {
+                batch.add(task);
+            }
+        }
+    }
+    
+    public void dispatch(Task task, Project parent) {
+        dispatch(task, parent, null);
+    }
+    
+    // Reminders reach the same observers an update to the task would
+    public void dispatchReminder(Task task, Project parent, ReminderType type) {
+        dispatch(task, parent, type);
+    }
+    
+    private void dispatch(Task task, Project parent, ReminderType reminder) {
+        TaskMetrics metrics = this.metrics;
+        for (TaskObserver observer : broadcast) {
+            notify(observer, task, reminder, metrics);
+        }
+        Matches matched = new Matches();
+        if (task.getAssignee() != null) {
+            matched.add(byAssignee.get(task.getAssignee()));
+        }
+        matched.add(byState.get(task.getTaskState().getDescription()));
+        if (!byProject.isEmpty()) {
+            for (Project project = parent; project != null; project = project.getParent()) {
+                matched.add(byProject.get(project));
+            }
+        }
+        for (TaskObserver observer : matched.list) {
+            if (broadcastSet.isEmpty() || !broadcastSet.contains(observer)) {
+                notify(observer, task, reminder, metrics);
+            }
+        }
+    }
+    
+    // Observers matched by one event, each notified at most once. A lone bucket is used as
+    // is; merging a second one copies the list and tracks its members in an identity set.
+    private static final class Matches {
+        List<TaskObserver> list = Collections.emptyList();
+        private Set<TaskObserver> seen;
+        
+        void add(List<TaskObserver> bucket) {
+            if (bucket == null || bucket.isEmpty()) {
+                return;
+            }
+            if (list.isEmpty()) {
+                list = bucket;
+                return;
+            }
+            if (seen == null) {
+                seen = Collections.newSetFromMap(new IdentityHashMap<>());
+                seen.addAll(list);
+                list = new ArrayList<>(list);
+            }
+            for (TaskObserver observer : bucket) {
+                if (seen.add(observer)) {
+                    list.add(observer);
+                }
+            }
+        }
+    }
+}
+
+class TeamMember implements TaskObserver {
+    private String name;
+    private final MemberWorkload workload = new MemberWorkload(this);
+    private volatile TaskIdGenerator idGenerator = TaskIdGenerator.shared();
+    
+    public TeamMember(String name) {
+        this.name = name;
+    }
+    
+    // Counts of the tasks assigned to this member, kept current on every change
+    public MemberWorkload getWorkload() {
+        return workload;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    // Use TaskManagementSystem.renameTeamMember so indexes, subscriptions and tasks follow
+    void setName(String name) {
+        this.name = name;
+    }
+    
+    @Override
+    public void update(Task task) {
+        System.out.println("Notification to " + name + ": Task '" + task.getTitle() + 
+                           "' has been updated, new state: " + task.getTaskState().getDescription());
+    }
+    
+    @Override
+    public void updateBatch(List<Task> tasks) {
+        System.out.println("Notification to " + name + ": " + tasks.size() + " tasks were updated");
+    }
+    
+    @Override
+    public void remind(Task task, ReminderType type) {
+        System.out.println("Reminder to " + name + ": Task '" + task.getTitle() + "' " +
+                           (type == ReminderType.DUE ? "is due today" : "is overdue") + " (" + task.getDueDate() + ")");
+    }
+    
+    public void assignTask(Task task) {
+        task.assignTo(this);
+        System.out.println("Task '" + task.getTitle() + "' assigned to " + name);
+    }
+    
+    public void setIdGenerator(TaskIdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+    
+    // Used when recovering from a TaskStore, without the console message
+    void restoreAssignedTask(Task task) {
+        task.assignTo(this);
+    }
+    
+    public Task createTemplateTask(String title, String description, String dueDate) {
+        String id = idGenerator.nextId();
+        Task task = new Task(id, title, description, dueDate);
+        task.setAssignee(this);
+        return task;
+    }
+}
+
+enum DueWindow {
+    OVERDUE,
+    DUE_TODAY,
+    // The seven days after today
+    DUE_THIS_WEEK,
+    LATER,
+    NO_DUE_DATE
+}
+
+// One member's assigned tasks counted by state and, for open tasks, by due date. Task
+// updates it on every assignment, reassignment and state change, so nothing is scanned.
+// Open means the workflow has a next state, the same test TaskStats uses for overdue.
+class MemberWorkload {
+    private final TeamMember member;
+    private final Map<TaskState, Integer> byState = new HashMap<>();
+    // ISO dates sort correctly as strings. Windows are summed from the days at query time,
+    // since a count kept per window would go stale as the days pass.
+    private final TreeMap<String, Integer> openByDueDate = new TreeMap<>();
+    private int open;
+    private int openUndated;
+    private WorkloadBalancer balancer;
+    // Position and key in the balancer's heap, only touched under the balancer's lock
+    int heapIndex = -1;
+    int heapKey;
+    long heapOrder;
+    
+    MemberWorkload(TeamMember member) {
+        this.member = member;
+    }
+    
+    public TeamMember getMember() {
+        return member;
+    }
+    
+    synchronized void add(Task task, TaskState state) {
+        change(task, state, 1);
+    }
+    
+    synchronized void remove(Task task, TaskState state) {
+        change(task, state, -1);
+    }
+    
+    private void change(Task task, TaskState state, int delta) {
+        byState.merge(state, delta, MemberWorkload::sum);
+        if (task.getWorkflow().getNextState(state) == null) {
+            return;
+        }
+        open += delta;
+        if (task.getDueDate() == null) {
+            openUndated += delta;
+        } else {
+            openByDueDate.merge(task.getDueDate(), delta, MemberWorkload::sum);
+        }
+        // Under this workload's lock, so the balancer sees the counts in order
+        if (balancer != null) {
+            balancer.update(this, open);
+        }
+    }
+    
+    // Drops the entry once its count is back to zero
+    private static Integer sum(Integer a, Integer b) {
+        int total = a + b;
+        return total == 0 ? null : total;
+    }
+    
+    synchronized void setBalancer(WorkloadBalancer balancer) {
+        if (this.balancer != null) {
+            this.balancer.remove(this);
+        }
+        this.balancer = balancer;
+        if (balancer != null) {
+            balancer.add(this, open);
+        }
+    }
+    
+    public synchronized int getOpenCount() {
+        return open;
+    }
+    
+    public synchronized int getTotalCount() {
+        int total = 0;
+        for (int count : byState.values()) {
+            total += count;
+        }
+        return total;
+    }
+    
+    public synchronized Map<String, Integer> getCountsByState() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        byState.forEach((state, count) -> counts.merge(state.getDescription(), count, Integer::sum));
+        return counts;
+    }
+    
+    // Open tasks per due window relative to asOf; O(distinct due dates), not O(tasks)
+    public synchronized Map<DueWindow, Integer> getOpenByDueWindow(LocalDate asOf) {
+        String today = asOf.toString();
+        String weekEnd = asOf.plusDays(7).toString();
+        Map<DueWindow, Integer> windows = new EnumMap<>(DueWindow.class);
+        windows.put(DueWindow.OVERDUE, total(openByDueDate.headMap(today, false)));
+        windows.put(DueWindow.DUE_TODAY, openByDueDate.getOrDefault(today, 0));
+        windows.put(DueWindow.DUE_THIS_WEEK, total(openByDueDate.subMap(today, false, weekEnd, true)));
+        windows.put(DueWindow.LATER, total(openByDueDate.tailMap(weekEnd, false)));
+        windows.put(DueWindow.NO_DUE_DATE, openUndated);
+        return windows;
+    }
+    
+    private static int total(Map<String, Integer> counts) {
+        int total = 0;
+        for (int count : counts.values()) {
+            total += count;
+        }
+        return total;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return "MemberWorkload [member=" + member.getName() + ", open=" + open + ", states=" + getCountsByState() + "]";
+    }
+}
+
+// Indexed binary min-heap of members by open task count: the least loaded member is at
+// the root, and each workload change re-sorts only that member, in O(log members).
+// Ties go to the member added first. Workloads call in while holding their own lock,
+// so this never takes a workload's lock.
+class WorkloadBalancer {
+    private MemberWorkload[] heap = new MemberWorkload[16];
+    private int size;
+    private long nextOrder;
+    
+    synchronized void add(MemberWorkload workload, int open) {
+        if (workload.heapIndex >= 0) {
+            return;
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        workload.heapKey = open;
+        workload.heapOrder = nextOrder++;
+        heap[size] = workload;
+        workload.heapIndex = size++;
+        siftUp(workload.heapIndex);
+    }
+    
+    synchronized void remove(MemberWorkload workload) {
+        int index = workload.heapIndex;
+        if (index < 0) {
+            return;
+        }
+        MemberWorkload last = heap[--size];
+        heap[size] = null;
+        workload.heapIndex = -1;
+        if (index < size) {
+            heap[index] = last;
+            last.heapIndex = index;
+            siftDown(index);
+            siftUp(last.heapIndex);
+        }
+    }
+    
+    synchronized void update(MemberWorkload workload, int open) {
+        int index = workload.heapIndex;
+        if (index < 0) {
+            return;
+        }
+        int previous = workload.heapKey;
+        workload.heapKey = open;
+        if (open < previous) {
+            siftUp(index);
+        } else if (open > previous) {
+            siftDown(index);
+        }
+    }
+    
+    // null when there are no members
+    public synchronized TeamMember leastLoaded() {
+        return size == 0 ? null : heap[0].getMember();
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    private void siftUp(int index) {
+        MemberWorkload workload = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!less(workload, heap[parent])) {
+                break;
+            }
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(workload, index);
+    }
+    
+    private void siftDown(int index) {
+        MemberWorkload workload = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], workload)) {
+                break;
+            }
+            place(heap[child], index);
+            index = child;
+        }
+        place(workload, index);
+    }
+    
+    private void place(MemberWorkload workload, int index) {
+        heap[index] = workload;
+        workload.heapIndex = index;
+    }
+    
+    private static boolean less(MemberWorkload a, MemberWorkload b) {
+        return a.heapKey < b.heapKey || (a.heapKey == b.heapKey && a.heapOrder < b.heapOrder);
+    }
+}
+
+// Receives every mutation of a TaskManagementSystem, in the order it happened
+interface TaskJournal {
+    void projectAdded(Project parent, Project project);
+    void taskAdded(Project parent, Task task);
+    void componentRemoved(Project parent, TaskComponent component);
+    // previousAssignee and previous are the values the change replaced
+    void taskAssigned(Task task, String previousAssignee);
+    void taskStateChanged(Task task, TaskState previous);
+    // Called just before the clone is added to its project, on the thread that adds it; a
+    // batch of clones may be announced together before they are added together
+    void taskCloned(Task template, Task clone);
+    void memberAdded(TeamMember member);
+    void templateAdded(Task template);
+    void projectRenamed(Project project);
+    void memberRenamed(String oldName, TeamMember member);
+    void memberRemoved(TeamMember member);
+    // before is null when the component went to the end of 'to'
+    void componentMoved(Project from, Project to, TaskComponent component, TaskComponent before);
+    
+    // Between the two, changes from the calling thread are recorded in order but need not
+    // be durable until endBatch returns, so they can be recorded while holding locks
+    default void beginBatch() {
+    }
+    
+    default void endBatch() {
+    }
+}
+
+// Passes every change to two journals, e.g. the TaskStore and a TaskChangeFeed
+final class JournalChain implements TaskJournal {
+    private final TaskJournal first;
+    private final TaskJournal second;
+    
+    JournalChain(TaskJournal first, TaskJournal second) {
+        this.first = first;
+        this.second = second;
+    }
+    
+    @Override
+    public void beginBatch() {
+        first.beginBatch();
+        second.beginBatch();
+    }
+    
+    @Override
+    public void endBatch() {
+        try {
+            first.endBatch();
+        } finally {
+            second.endBatch();
+        }
+    }
+    
+    @Override
+    public void projectAdded(Project parent, Project project) {
+        first.projectAdded(parent, project);
+        second.projectAdded(parent, project);
+    }
+    
+    @Override
+    public void taskAdded(Project parent, Task task) {
+        first.taskAdded(parent, task);
+        second.taskAdded(parent, task);
+    }
+    
+    @Override
+    public void componentRemoved(Project parent, TaskComponent component) {
+        first.componentRemoved(parent, component);
+        second.componentRemoved(parent, component);
+    }
+    
+    @Override
+    public void taskAssigned(Task task, String previousAssignee) {
+        first.taskAssigned(task, previousAssignee);
+        second.taskAssigned(task, previousAssignee);
+    }
+    
+    @Override
+    public void taskStateChanged(Task task, TaskState previous) {
+        first.taskStateChanged(task, previous);
+        second.taskStateChanged(task, previous);
+    }
+    
+    @Override
+    public void taskCloned(Task template, Task clone) {
+        first.taskCloned(template, clone);
+        second.taskCloned(template, clone);
+    }
+    
+    @Override
+    public void memberAdded(TeamMember member) {
+        first.memberAdded(member);
+        second.memberAdded(member);
+    }
+    
+    @Override
+    public void templateAdded(Task template) {
+        first.templateAdded(template);
+        second.templateAdded(template);
+    }
+    
+    @Override
+    public void projectRenamed(Project project) {
+        first.projectRenamed(project);
+        second.projectRenamed(project);
+    }
+    
+    @Override
+    public void memberRenamed(String oldName, TeamMember member) {
+        first.memberRenamed(oldName, member);
+        second.memberRenamed(oldName, member);
+    }
+    
+    @Override
+    public void memberRemoved(TeamMember member) {
+        first.memberRemoved(member);
+        second.memberRemoved(member);
+    }
+    
+    @Override
+    public void componentMoved(Project from, Project to, TaskComponent component, TaskComponent before) {
+        first.componentMoved(from, to, component, before);
+        second.componentMoved(from, to, component, before);
+    }
+}
+
+// Durable storage: an append-only write-ahead log split into numbered segments, plus
+// periodic ColumnarSnapshot checkpoints. Appends are group-committed: a single writer thread
+// takes everything queued since its last write and makes it durable with one FileChannel.force.
+// Every record is idempotent, so replaying the log tail over a newer snapshot is safe.
+class TaskStore implements TaskJournal, AutoCloseable {
+    private static final String SNAPSHOT_FILE = "snapshot.col";
+    // Written before checkpoints were columnar; still read, and removed by the next checkpoint
+    private static final byte PROJECT = 1;
+    private static final byte TASK = 2;
+    private static final byte REMOVE_TASK = 3;
+    private static final byte REMOVE_PROJECT = 4;
+    private static final byte ASSIGN = 5;
+    private static final byte STATE = 6;
+    private static final byte MEMBER = 7;
+    private static final byte TEMPLATE = 8;
+    private static final byte RENAME_PROJECT = 9;
+    private static final byte RENAME_MEMBER = 10;
+    private static final byte REMOVE_MEMBER = 11;
+    private static final byte MOVE = 12;
+    private static final byte CHILD_NONE = 0;
+    private static final byte CHILD_PROJECT = 1;
+    private static final byte CHILD_TASK = 2;
+    
+    // Exposes the backing array so batches can be written without copying
+    static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+        
+        byte[] array() {
+            return buf;
+        }
+    }
+    
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+    
+    private final Path directory;
+    private final boolean syncCommit;
+    // Sequence of the last record the thread appended since beginBatch; null outside a batch
+    private final ThreadLocal<long[]> batch = new ThreadLocal<>();
+    private final Map<Project, Integer> projectIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextProjectId = new AtomicInteger();
+    
+    private final Object lock = new Object();
+    private final Buffer record = new Buffer(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private Buffer pending = new Buffer(64 * 1024);
+    private DataOutputStream pendingOut = new DataOutputStream(pending);
+    private long appendedSeq;
+    private long durableSeq;
+    private IOException failure;
+    private volatile Exception snapshotFailure;
+    private boolean closed;
+    private FileChannel segment;
+    private int segmentNumber;
+    private final Thread writer;
+    private ScheduledExecutorService snapshotScheduler;
+    
+    private TaskStore(Path directory, boolean syncCommit) throws IOException {
+        this.directory = directory;
+        this.syncCommit = syncCommit;
+        List<Path> existing = segments();
+        segmentNumber = existing.isEmpty() ? 1 : segmentNumber(existing.get(existing.size() - 1)) + 1;
+        segment = openSegment(segmentNumber);
+        writer = new Thread(this::writeLoop, "task-store-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    // With syncCommit, each mutation returns only once it is on disk
+    public static TaskStore open(Path directory, boolean syncCommit) throws IOException {
+        Files.createDirectories(directory);
+        return new TaskStore(directory, syncCommit);
+    }
+    
+    // Loads the snapshot and replays the log written after it, then journals every further
+    // change to tms. Every task in the snapshot is materialized here; see
+    // ColumnarSnapshot.loadInto for why recovery cannot be lazy.
+    public void recover(TaskManagementSystem tms) throws IOException {
+        Map<Integer, Project> projects = new HashMap<>();
+        int firstUncovered = 0;
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            ColumnarSnapshot columnar = ColumnarSnapshot.open(snapshot);
+            columnar.loadInto(tms, projects);
+            firstUncovered = columnar.getFirstLogSegment();
+        }
+        for (Path path : segments()) {
+            int number = segmentNumber(path);
+            if (number >= firstUncovered && number < segmentNumber) {
+                replaySegment(path, tms, projects);
+            }
+        }
+        for (Map.Entry<Integer, Project> entry : projects.entrySet()) {
+            projectIds.put(entry.getValue(), entry.getKey());
+            if (entry.getKey() >= nextProjectId.get()) {
+                nextProjectId.set(entry.getKey() + 1);
+            }
+        }
+        tms.setIdGenerator(new SequenceTaskIdGenerator("TASK-", new FileIdBlockStore(directory.resolve("task-ids")), 1024));
+        tms.setJournal(this);
+    }
+    
+    // Writes a compacted snapshot and drops the log segments it covers
+    public void snapshot(TaskManagementSystem tms) throws IOException {
+        int firstLiveSegment;
+        synchronized (lock) {
+            // Everything before the new segment is durable and already applied in memory
+            while (pending.size() > 0 || durableSeq < appendedSeq) {
+                if (failure != null) {
+                    throw failure;
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            segment.close();
+            segmentNumber++;
+            segment = openSegment(segmentNumber);
+            firstLiveSegment = segmentNumber;
+        }
+        ColumnarSnapshot.write(tms, directory.resolve(SNAPSHOT_FILE),
+                               project -> projectIds.computeIfAbsent(project, p -> nextProjectId.getAndIncrement()),
+                               firstLiveSegment);
+        for (Path path : segments()) {
+            if (segmentNumber(path) < firstLiveSegment) {
+                Files.delete(path);
+            }
+        }
+    }
+    
+    public synchronized void startPeriodicSnapshots(TaskManagementSystem tms, long period, TimeUnit unit) {
+        if (snapshotScheduler != null) {
+            return;
+        }
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "task-store-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(tms);
+                snapshotFailure = null;
+            } catch (IOException | RuntimeException e) {
+                // The log still holds everything, so the store keeps going; close reports it
+                snapshotFailure = e;
+            }
+        }, period, period, unit);
+    }
+    
+    // The error from the last periodic snapshot, or null if it succeeded
+    public Exception getSnapshotFailure() {
+        return snapshotFailure;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (snapshotScheduler != null) {
+                snapshotScheduler.shutdown();
+            }
+        }
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            segment.close();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        Exception snapshotFailure = this.snapshotFailure;
+        if (snapshotFailure != null) {
+            throw new IOException("Periodic snapshot failed", snapshotFailure);
+        }
+    }
+    
+    // Journal
+    
+    @Override
+    public void projectAdded(Project parent, Project project) {
+        int id = projectIds.computeIfAbsent(project, p -> nextProjectId.getAndIncrement());
+        int parentId = parent == null ? -1 : projectIds.getOrDefault(parent, -1);
+        append(PROJECT, out -> {
+            out.writeInt(id);
+            out.writeInt(parentId);
+            out.writeUTF(project.getName());
+        });
+    }
+    
+    @Override
+    public void taskAdded(Project parent, Task task) {
+        int parentId = projectIds.getOrDefault(parent, -1);
+        append(TASK, out -> {
+            out.writeInt(parentId);
+            writeTask(out, task);
+        });
+    }
+    
+    @Override
+    public void componentRemoved(Project parent, TaskComponent component) {
+        int parentId = parent == null ? -1 : projectIds.getOrDefault(parent, -1);
+        if (component instanceof TaskItem) {
+            String taskId = ((TaskItem) component).getTask().getId();
+            append(REMOVE_TASK, out -> {
+                out.writeInt(parentId);
+                out.writeUTF(taskId);
+            });
+        } else if (component instanceof Project) {
+            Integer id = projectIds.get(component);
+            if (id != null) {
+                append(REMOVE_PROJECT, out -> {
+                    out.writeInt(parentId);
+                    out.writeInt(id);
+                });
+            }
+        }
+    }
+    
+    // Assignee and state are read while holding the log lock, so the last record for a
+    // task always carries its latest value even when several threads race to update it
+    @Override
+    public void taskAssigned(Task task, String previousAssignee) {
+        append(ASSIGN, out -> {
+            out.writeUTF(task.getId());
+            writeNullable(out, task.getAssignee());
+        });
+    }
+    
+    @Override
+    public void taskStateChanged(Task task, TaskState previous) {
+        append(STATE, out -> {
+            out.writeUTF(task.getId());
+            out.writeUTF(task.getTaskState().getDescription());
+        });
+    }
+    
+    // The TASK record written when the clone is added is all recovery needs
+    @Override
+    public void taskCloned(Task template, Task clone) {
+    }
+    
+    @Override
+    public void memberAdded(TeamMember member) {
+        append(MEMBER, out -> out.writeUTF(member.getName()));
+    }
+    
+    @Override
+    public void templateAdded(Task template) {
+        append(TEMPLATE, out -> writeTask(out, template));
+    }
+    
+    @Override
+    public void projectRenamed(Project project) {
+        Integer id = projectIds.get(project);
+        if (id != null) {
+            append(RENAME_PROJECT, out -> {
+                out.writeInt(id);
+                out.writeUTF(project.getName());
+            });
+        }
+    }
+    
+    @Override
+    public void memberRenamed(String oldName, TeamMember member) {
+        append(RENAME_MEMBER, out -> {
+            out.writeUTF(oldName);
+            out.writeUTF(member.getName());
+        });
+    }
+    
+    @Override
+    public void memberRemoved(TeamMember member) {
+        append(REMOVE_MEMBER, out -> out.writeUTF(member.getName()));
+    }
+    
+    @Override
+    public void componentMoved(Project from, Project to, TaskComponent component, TaskComponent before) {
+        int fromId = projectIds.getOrDefault(from, -1);
+        int toId = projectIds.getOrDefault(to, -1);
+        append(MOVE, out -> {
+            out.writeInt(fromId);
+            out.writeInt(toId);
+            writeChildRef(out, component);
+            writeChildRef(out, before);
+        });
+    }
+    
+    private void writeChildRef(DataOutputStream out, TaskComponent component) throws IOException {
+        if (component instanceof TaskItem) {
+            out.writeByte(CHILD_TASK);
+            out.writeUTF(((TaskItem) component).getTask().getId());
+        } else if (component instanceof Project && projectIds.containsKey(component)) {
+            out.writeByte(CHILD_PROJECT);
+            out.writeInt(projectIds.get(component));
+        } else {
+            out.writeByte(CHILD_NONE);
+        }
+    }
+    
+    private static TaskComponent readChildRef(DataInputStream in, TaskManagementSystem tms,
+                                              Map<Integer, Project> projects) throws IOException {
+        byte kind = in.readByte();
+        if (kind == CHILD_TASK) {
+            return tms.findTaskItem(in.readUTF());
+        }
+        if (kind == CHILD_PROJECT) {
+            return projects.get(in.readInt());
+        }
+        return null;
+    }
+    
+    // Write-ahead log
+    
+    private void append(byte type, RecordBody body) {
+        long seq;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("TaskStore is closed");
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Write-ahead log failed", failure);
+            }
+            try {
+                record.reset();
+                recordOut.writeByte(type);
+                body.write(recordOut);
+                crc.reset();
+                crc.update(record.array(), 0, record.size());
+                pendingOut.writeInt(record.size());
+                pendingOut.writeInt((int) crc.getValue());
+                pendingOut.write(record.array(), 0, record.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            seq = ++appendedSeq;
+            lock.notifyAll();
+        }
+        if (syncCommit) {
+            long[] batched = batch.get();
+            if (batched != null) {
+                batched[0] = seq;
+            } else {
+                awaitDurable(seq);
+            }
+        }
+    }
+    
+    // With syncCommit, waits once for the last record of the batch instead of for each
+    @Override
+    public void beginBatch() {
+        if (syncCommit) {
+            batch.set(new long[1]);
+        }
+    }
+    
+    @Override
+    public void endBatch() {
+        long[] batched = batch.get();
+        if (batched != null) {
+            batch.remove();
+            if (batched[0] > 0) {
+                awaitDurable(batched[0]);
+            }
+        }
+    }
+    
+    private void awaitDurable(long seq) {
+        synchronized (lock) {
+            while (durableSeq < seq && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Write-ahead log failed", failure);
+            }
+        }
+    }
+    
+    private void writeLoop() {
+        Buffer batch = new Buffer(64 * 1024);
+        while (true) {
+            long target;
+            FileChannel channel;
+            synchronized (lock) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // Without a writer nothing becomes durable again: fail waiters and appends
+                        failure = new InterruptedIOException("Write-ahead log writer interrupted");
+                        lock.notifyAll();
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                Buffer full = pending;
+                pending = batch;
+                pendingOut = new DataOutputStream(pending);
+                batch = full;
+                target = appendedSeq;
+                channel = segment;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch.array(), 0, batch.size());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+            batch.reset();
+            synchronized (lock) {
+                durableSeq = target;
+                lock.notifyAll();
+            }
+        }
+    }
+    
+    private FileChannel openSegment(int number) throws IOException {
+        return FileChannel.open(directory.resolve(String.format("wal-%06d.log", number)),
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+    
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> p.getFileName().toString().matches("wal-\\d+\\.log")).forEach(segments::add);
+        }
+        segments.sort(Comparator.comparingInt(TaskStore::segmentNumber));
+        return segments;
+    }
+    
+    private static int segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(4, name.length() - 4));
+    }
+    
+    // Recovery
+    
+    private void replaySegment(Path path, TaskManagementSystem tms, Map<Integer, Project> projects) throws IOException {
+        CRC32 check = new CRC32();
+        long remaining = Files.size(path);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024))) {
+            // A torn record at the tail was never acknowledged: a short header, a length that
+            // is not positive or runs past the end (zero-filled or garbage pages), or a bad
+            // CRC all end the replay there
+            while (remaining >= 8) {
+                int length = in.readInt();
+                int expected = in.readInt();
+                remaining -= 8;
+                if (length <= 0 || length > remaining) {
+                    return;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                remaining -= length;
+                check.reset();
+                check.update(payload, 0, length);
+                if ((int) check.getValue() != expected) {
+                    return;
+                }
+                try {
+                    apply(new DataInputStream(new ByteArrayInputStream(payload)), tms, projects);
+                } catch (IOException | RuntimeException e) {
+                    // Only the last record may be cut short; anything earlier is real damage
+                    if (remaining > 0) {
+                        throw new IOException("Corrupt log record in " + path.getFileName(), e);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+    
+    private void apply(DataInputStream in, TaskManagementSystem tms, Map<Integer, Project> projects) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case PROJECT: {
+                int id = in.readInt();
+                int parentId = in.readInt();
+                String name = in.readUTF();
+                if (projects.containsKey(id)) {
+                    break;
+                }
+                Project project;
+                if (parentId < 0) {
+                    project = tms.createProject(name);
+                } else {
+                    Project parent = projects.get(parentId);
+                    if (parent == null) {
+                        break;
+                    }
+                    project = new Project(name);
+                    parent.add(project);
+                }
+                projects.put(id, project);
+                break;
+            }
+            case TASK: {
+                Project parent = projects.get(in.readInt());
+                Task task = readTask(in, tms);
+                if (parent != null && tms.findTaskById(task.getId()) == null) {
+                    parent.add(new TaskItem(task));
+                    restoreAssignment(tms, task);
+                }
+                break;
+            }
+            case REMOVE_TASK: {
+                Project parent = projects.get(in.readInt());
+                String taskId = in.readUTF();
+                if (parent != null) {
+                    for (TaskComponent child : parent.getTasks()) {
+                        if (child instanceof TaskItem && ((TaskItem) child).getTask().getId().equals(taskId)) {
+                            parent.remove(child);
+                            break;
+                        }
+                    }
+                }
+                break;
+            }
+            case REMOVE_PROJECT: {
+                int parentId = in.readInt();
+                Project project = projects.remove(in.readInt());
+                if (project != null) {
+                    if (parentId < 0) {
+                        tms.removeProject(project);
+                    } else if (projects.get(parentId) != null) {
+                        projects.get(parentId).remove(project);
+                    }
+                }
+                break;
+            }
+            case ASSIGN: {
+                Task task = tms.findTaskById(in.readUTF());
+                String assignee = readNullable(in);
+                if (task != null && (assignee == null || !assignee.equals(task.getAssignee()))) {
+                    task.setAssignee(assignee);
+                    restoreAssignment(tms, task);
+                    tms.reindexTask(task);
+                }
+                break;
+            }
+            case STATE: {
+                Task task = tms.findTaskById(in.readUTF());
+                String description = in.readUTF();
+                if (task != null) {
+                    TaskState state = task.getWorkflow().findState(description);
+                    if (state != null) {
+                        task.setTaskState(state);
+                        tms.reindexTask(task);
+                    }
+                }
+                break;
+            }
+            case MEMBER: {
+                String name = in.readUTF();
+                if (tms.findTeamMemberByName(name) == null) {
+                    tms.addTeamMember(new TeamMember(name));
+                }
+                break;
+            }
+            case MOVE: {
+                Project from = projects.get(in.readInt());
+                Project to = projects.get(in.readInt());
+                TaskComponent component = readChildRef(in, tms, projects);
+                TaskComponent before = readChildRef(in, tms, projects);
+                if (from != null && to != null && component != null && component.getParent() == from) {
+                    from.moveTo(component, to, before != null && before.getParent() == to ? before : null);
+                }
+                break;
+            }
+            case RENAME_PROJECT: {
+                Project project = projects.get(in.readInt());
+                String name = in.readUTF();
+                if (project != null) {
+                    tms.renameProject(project, name);
+                }
+                break;
+            }
+            case RENAME_MEMBER: {
+                TeamMember member = tms.findTeamMemberByName(in.readUTF());
+                String name = in.readUTF();
+                if (member != null && !member.getName().equals(name)) {
+                    tms.renameTeamMember(member, name);
+                }
+                break;
+            }
+            case REMOVE_MEMBER: {
+                TeamMember member = tms.findTeamMemberByName(in.readUTF());
+                if (member != null) {
+                    tms.removeTeamMember(member);
+                }
+                break;
+            }
+            case TEMPLATE: {
+                Task template = readTask(in, tms);
+                for (Task existing : tms.getTemplateTasks()) {
+                    if (existing.getId().equals(template.getId())) {
+                        return;
+                    }
+                }
+                tms.addTemplateTask(template);
+                break;
+            }
+            default:
+                throw new IOException("Unknown log record type " + type);
+        }
+    }
+    
+    private static void restoreAssignment(TaskManagementSystem tms, Task task) {
+        if (task.getAssignee() != null) {
+            TeamMember member = tms.findTeamMemberByName(task.getAssignee());
+            if (member != null) {
+                member.restoreAssignedTask(task);
+            }
+        }
+    }
+    
+    // Task encoding of log records
+    
+    private static void writeTask(DataOutputStream out, Task task) throws IOException {
+        out.writeUTF(task.getId());
+        writeNullable(out, task.getTitle());
+        writeNullable(out, task.getDescription());
+        writeNullable(out, task.getDueDate());
+        writeNullable(out, task.getAssignee());
+        out.writeUTF(task.getTaskState().getDescription());
+    }
+    
+    private static Task readTask(DataInputStream in, TaskManagementSystem tms) throws IOException {
+        Task task = new Task(in.readUTF(), readNullable(in), readNullable(in), readNullable(in));
+        task.setAssignee(readNullable(in));
+        TaskState state = task.getWorkflow().findState(in.readUTF());
+        if (state != null) {
+            task.setTaskState(state);
+        }
+        return task;
+    }
+    
+    static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+    
+    static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
+
+enum TaskChangeType {
+    CREATED,
+    CLONED,
+    ASSIGNED,
+    TRANSITIONED,
+    MOVED,
+    // Tombstone: the task left the system; only the id and its last project are set
+    REMOVED
+}
+
+// One entry of a TaskChangeFeed: what happened, the task as it was right after the
+// change, and the value the change replaced. The sequence number is the event's offset in
+// the feed and doubles as its version, since it only grows for every task.
+final class TaskChangeEvent {
+    private final long sequence;
+    private final long timestamp;
+    private final TaskChangeType type;
+    private final String taskId;
+    private final String title;
+    private final String description;
+    private final String dueDate;
+    private final String assignee;
+    private final String state;
+    private final String projectPath;
+    // The previous assignee, state or project path for ASSIGNED, TRANSITIONED and MOVED,
+    // and the template id for CLONED; null for the other types
+    private final String previous;
+    
+    TaskChangeEvent(long sequence, long timestamp, TaskChangeType type, String taskId, String title, String description,
+              String dueDate, String assignee, String state, String projectPath, String previous) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.taskId = taskId;
+        this.title = title;
+        this.description = description;
+        this.dueDate = dueDate;
+        this.assignee = assignee;
+        this.state = state;
+        this.projectPath = projectPath;
+        this.previous = previous;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    public TaskChangeType getType() {
+        return type;
+    }
+    
+    public String getTaskId() {
+        return taskId;
+    }
+    
+    public String getTitle() {
+        return title;
+    }
+    
+    public String getDescription() {
+        return description;
+    }
+    
+    public String getDueDate() {
+        return dueDate;
+    }
+    
+    public String getAssignee() {
+        return assignee;
+    }
+    
+    public String getState() {
+        return state;
+    }
+    
+    // Project names from the top-level project down, separated by '/'
+    public String getProjectPath() {
+        return projectPath;
+    }
+    
+    public String getPrevious() {
+        return previous;
+    }
+    
+    // Type and sequence come first so the feed can read them without decoding the rest
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeLong(sequence);
+        out.writeLong(timestamp);
+        out.writeUTF(taskId);
+        TaskStore.writeNullable(out, title);
+        TaskStore.writeNullable(out, description);
+        TaskStore.writeNullable(out, dueDate);
+        TaskStore.writeNullable(out, assignee);
+        TaskStore.writeNullable(out, state);
+        TaskStore.writeNullable(out, projectPath);
+        TaskStore.writeNullable(out, previous);
+    }
+    
+    static TaskChangeEvent readFrom(DataInputStream in) throws IOException {
+        TaskChangeType type = TaskChangeType.values()[in.readByte()];
+        return new TaskChangeEvent(in.readLong(), in.readLong(), type, in.readUTF(), TaskStore.readNullable(in),
+                             TaskStore.readNullable(in), TaskStore.readNullable(in), TaskStore.readNullable(in),
+                             TaskStore.readNullable(in), TaskStore.readNullable(in), TaskStore.readNullable(in));
+    }
+    
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + type + " " + taskId + (previous != null ? " (was " + previous + ")" : "") +
+               " [title=" + title + ", state=" + state + ", assignee=" + assignee + ", project=" + projectPath + "]";
+    }
+}
+
+// Append-only, sequence-numbered log of task events in segment files named after the
+// first sequence they hold, framed like the TaskStore log (length, CRC32, payload).
+// Consumers replay from any sequence with a FeedCursor, or copy raw frames to a channel
+// with transferTo, which moves file ranges without passing them through the heap.
+// compact() rewrites closed segments keeping only the latest event per task, so the
+// feed grows with the number of tasks rather than the number of changes.
+// As in TaskStore, changes only encode their event into a pending buffer; a writer
+// thread writes whatever has piled up with one call and then makes it visible to readers.
+// Attach with TaskManagementSystem.setChangeFeed; project renames are not task events.
+class TaskChangeFeed implements TaskJournal, AutoCloseable {
+    static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final int HEADER_BYTES = 8;
+    // Bytes of records between sparse index entries; a seek reads at most this much extra
+    private static final int INDEX_INTERVAL = 4096;
+    // Type, sequence and timestamp precede the task id in every payload
+    private static final int KEY_OFFSET = 17;
+    
+    private static final class Segment {
+        final long baseSequence;
+        final Path path;
+        final FileChannel channel;
+        // Sequence of the first record at or after every INDEX_INTERVAL bytes -> its position
+        final ConcurrentSkipListMap<Long, Long> index = new ConcurrentSkipListMap<>();
+        // Bytes of complete records; readers never look past it
+        volatile long size;
+        volatile long lastSequence;
+        private long lastIndexed = -INDEX_INTERVAL;
+        
+        Segment(long baseSequence, Path path, FileChannel channel) {
+            this.baseSequence = baseSequence;
+            this.path = path;
+            this.channel = channel;
+            this.lastSequence = baseSequence - 1;
+        }
+        
+        void added(long sequence, long position, int frameLength) {
+            if (position - lastIndexed >= INDEX_INTERVAL) {
+                index.put(sequence, position);
+                lastIndexed = position;
+            }
+            lastSequence = sequence;
+            size = position + frameLength;
+        }
+        
+        // No record at or after 'sequence' starts before this position
+        long seekStart(long sequence) {
+            Map.Entry<Long, Long> entry = index.floorEntry(sequence);
+            return entry == null ? 0 : entry.getValue();
+        }
+    }
+    
+    // Walks the complete, intact frames of a segment between two positions
+    private static final class RecordReader {
+        private final FileChannel channel;
+        private final long limit;
+        private final CRC32 check = new CRC32();
+        private byte[] array = new byte[64 * 1024];
+        private ByteBuffer view = ByteBuffer.wrap(array);
+        // File position of array[0], and how many bytes from there are loaded
+        private long bufferStart;
+        private int filled;
+        private long next;
+        private long position;
+        private int length;
+        
+        RecordReader(FileChannel channel, long start, long limit) {
+            this.channel = channel;
+            this.limit = limit;
+            this.bufferStart = start;
+            this.next = start;
+        }
+        
+        // Stops at the limit and at the first torn or corrupt frame
+        boolean next() throws IOException {
+            position = next;
+            if (position + HEADER_BYTES > limit || !load(HEADER_BYTES)) {
+                return false;
+            }
+            int at = (int) (position - bufferStart);
+            length = view.getInt(at);
+            int expected = view.getInt(at + 4);
+            if (length <= KEY_OFFSET || position + HEADER_BYTES + length > limit || !load(HEADER_BYTES + length)) {
+                return false;
+            }
+            at = (int) (position - bufferStart);
+            check.reset();
+            check.update(array, at + HEADER_BYTES, length);
+            if ((int) check.getValue() != expected) {
+                return false;
+            }
+            next = position + HEADER_BYTES + length;
+            return true;
+        }
+        
+        long position() {
+            return position;
+        }
+        
+        int frameLength() {
+            return HEADER_BYTES + length;
+        }
+        
+        byte type() {
+            return array[payloadOffset()];
+        }
+        
+        long sequence() {
+            return view.getLong(payloadOffset() + 1);
+        }
+        
+        String taskId() throws IOException {
+            return payload(KEY_OFFSET).readUTF();
+        }
+        
+        TaskChangeEvent event() throws IOException {
+            return TaskChangeEvent.readFrom(payload(0));
+        }
+        
+        // Copies the whole current frame, header included
+        void copyFrame(ByteArrayOutputStream out) {
+            out.write(array, (int) (position - bufferStart), frameLength());
+        }
+        
+        private int payloadOffset() {
+            return (int) (position - bufferStart) + HEADER_BYTES;
+        }
+        
+        private DataInputStream payload(int offset) {
+            return new DataInputStream(new ByteArrayInputStream(array, payloadOffset() + offset, length - offset));
+        }
+        
+        // Makes sure 'count' bytes from the current position are in the array
+        private boolean load(int count) throws IOException {
+            int at = (int) (position - bufferStart);
+            if (at + count <= filled) {
+                return true;
+            }
+            byte[] target = count > array.length ? new byte[Math.max(count, array.length * 2)] : array;
+            System.arraycopy(array, at, target, 0, filled - at);
+            if (target != array) {
+                array = target;
+                view = ByteBuffer.wrap(array);
+            }
+            filled -= at;
+            bufferStart = position;
+            while (filled < count) {
+                int read = channel.read(ByteBuffer.wrap(array, filled, array.length - filled), bufferStart + filled);
+                if (read <= 0) {
+                    return false;
+                }
+                filled += read;
+            }
+            return true;
+        }
+    }
+    
+    private final Path directory;
+    private final boolean syncWrites;
+    private final long segmentBytes;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    // Sequence of the newest event for each task id: the one compaction keeps
+    private final Map<String, Long> latestByTask = new ConcurrentHashMap<>();
+    // Appends are serialized on appendLock. Readers share segmentLock, and compaction holds
+    // it exclusively only while swapping a rewritten segment in.
+    private final Object appendLock = new Object();
+    private final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();
+    private final Object compactLock = new Object();
+    private final TaskStore.Buffer record = new TaskStore.Buffer(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    // Frames not yet written and the task id of each, in order; swapped out by the writer
+    private TaskStore.Buffer pending = new TaskStore.Buffer(64 * 1024);
+    private List<String> pendingIds = new ArrayList<>();
+    // With syncWrites, sequence of the last event the thread appended since beginBatch
+    private final ThreadLocal<long[]> batch = new ThreadLocal<>();
+    private Segment active;
+    // Last sequence handed out, and last one written; readers see up to lastSequence
+    private long appendedSequence;
+    private long lastSequence;
+    private IOException failure;
+    private boolean closed;
+    private final Thread writer;
+    private volatile TaskManagementSystem tms;
+    // Clone to template, set by taskCloned for the taskAdded calls that follow on the same
+    // thread; several at once when TemplateInstantiator adds a batch of instances
+    private final ThreadLocal<Map<Task, Task>> pendingClones = ThreadLocal.withInitial(IdentityHashMap::new);
+    
+    private TaskChangeFeed(Path directory, boolean syncWrites, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.syncWrites = syncWrites;
+        this.segmentBytes = segmentBytes;
+        List<Path> files = segmentFiles();
+        for (int i = 0; i < files.size(); i++) {
+            Path path = files.get(i);
+            Segment segment = new Segment(baseSequence(path), path, FileChannel.open(path, StandardOpenOption.READ,
+                                                                                     StandardOpenOption.WRITE));
+            RecordReader reader = new RecordReader(segment.channel, 0, segment.channel.size());
+            while (reader.next()) {
+                latestByTask.put(reader.taskId(), reader.sequence());
+                segment.added(reader.sequence(), reader.position(), reader.frameLength());
+            }
+            // Drops a frame torn by a crash; it was never handed to a consumer
+            segment.channel.truncate(segment.size);
+            lastSequence = Math.max(lastSequence, segment.lastSequence);
+            if (segment.size == 0 && i < files.size() - 1) {
+                segment.channel.close();
+                Files.delete(path);
+            } else {
+                segments.put(segment.baseSequence, segment);
+            }
+        }
+        active = segments.isEmpty() ? newSegment(lastSequence + 1) : segments.lastEntry().getValue();
+        appendedSequence = lastSequence;
+        writer = new Thread(this::writeLoop, "task-change-feed-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    // With syncWrites, each event is forced to disk before the change returns
+    public static TaskChangeFeed open(Path directory, boolean syncWrites) throws IOException {
+        return open(directory, syncWrites, DEFAULT_SEGMENT_BYTES);
+    }
+    
+    public static TaskChangeFeed open(Path directory, boolean syncWrites, long segmentBytes) throws IOException {
+        Files.createDirectories(directory);
+        return new TaskChangeFeed(directory, syncWrites, segmentBytes);
+    }
+    
+    // Called by TaskManagementSystem.setChangeFeed; used to find the project of a task
+    void bind(TaskManagementSystem tms) {
+        this.tms = tms;
+    }
+    
+    // Newest event appended; read and transferTo wait for it to be written
+    public long getLastSequence() {
+        synchronized (appendLock) {
+            return appendedSequence;
+        }
+    }
+    
+    // Bytes on disk across all segments
+    public long getSizeBytes() {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.size;
+        }
+        return total;
+    }
+    
+    // A consumer starting at fromSequence; 0 replays everything still in the feed
+    public FeedCursor cursor(long fromSequence) {
+        return new FeedCursor(this, fromSequence);
+    }
+    
+    // Up to 'max' events with a sequence of at least fromSequence, oldest first
+    public List<TaskChangeEvent> read(long fromSequence, int max) throws IOException {
+        awaitWritten(getLastSequence());
+        List<TaskChangeEvent> events = new ArrayList<>(Math.min(max, 1024));
+        segmentLock.readLock().lock();
+        try {
+            for (Segment segment : segmentsFrom(fromSequence)) {
+                if (segment.lastSequence < fromSequence) {
+                    continue;
+                }
+                RecordReader reader = new RecordReader(segment.channel, segment.seekStart(fromSequence), segment.size);
+                while (events.size() < max && reader.next()) {
+                    if (reader.sequence() >= fromSequence) {
+                        events.add(reader.event());
+                    }
+                }
+                if (events.size() >= max) {
+                    break;
+                }
+            }
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+        return events;
+    }
+    
+    // Waits until an event after 'sequence' exists; false if the timeout ran out first
+    public boolean awaitAfter(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (appendLock) {
+            while (lastSequence <= sequence && !closed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(appendLock, remaining);
+            }
+            return lastSequence > sequence;
+        }
+    }
+    
+    // Catch-up for consumers far behind: copies every frame from fromSequence on to the
+    // (blocking) target with FileChannel.transferTo, so the bytes go from the page cache
+    // to the channel without being decoded or copied into the heap. Decode the stream
+    // with readFramed. Returns the number of bytes sent.
+    public long transferTo(long fromSequence, WritableByteChannel target) throws IOException {
+        awaitWritten(getLastSequence());
+        long sent = 0;
+        segmentLock.readLock().lock();
+        try {
+            for (Segment segment : segmentsFrom(fromSequence)) {
+                if (segment.lastSequence < fromSequence) {
+                    continue;
+                }
+                long end = segment.size;
+                long position = startOf(segment, fromSequence, end);
+                while (position < end) {
+                    long count = segment.channel.transferTo(position, end - position, target);
+                    position += count;
+                    sent += count;
+                }
+            }
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+        return sent;
+    }
+    
+    // One frame from a transferTo stream; null at the end of the stream
+    public static TaskChangeEvent readFramed(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        int expected = in.readInt();
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        CRC32 check = new CRC32();
+        check.update(payload, 0, length);
+        if ((int) check.getValue() != expected) {
+            throw new IOException("Corrupt change feed frame");
+        }
+        return TaskChangeEvent.readFrom(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+    
+    // Rewrites every closed segment with only the newest event per task. A tombstone is
+    // dropped as well once its sequence is below tombstoneHorizon, so pass the lowest
+    // position any consumer still has to reach. Returns the bytes reclaimed.
+    public long compact(long tombstoneHorizon) throws IOException {
+        synchronized (compactLock) {
+            List<Segment> closedSegments;
+            synchronized (appendLock) {
+                closedSegments = new ArrayList<>(segments.headMap(active.baseSequence).values());
+            }
+            long reclaimed = 0;
+            for (Segment segment : closedSegments) {
+                reclaimed += compact(segment, tombstoneHorizon);
+            }
+            return reclaimed;
+        }
+    }
+    
+    // Writes every pending event before closing the segments
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            closed = true;
+            appendLock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segmentLock.writeLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+        synchronized (appendLock) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+    
+    // Journal
+    
+    @Override
+    public void projectAdded(Project parent, Project project) {
+    }
+    
+    @Override
+    public void taskAdded(Project parent, Task task) {
+        Map<Task, Task> clones = pendingClones.get();
+        Task template = clones.isEmpty() ? null : clones.remove(task);
+        if (template != null) {
+            append(TaskChangeType.CLONED, task, pathOf(parent), template.getId());
+        } else {
+            // Clones still pending belong to an add that failed before reaching them
+            clones.clear();
+            append(TaskChangeType.CREATED, task, pathOf(parent), null);
+        }
+    }
+    
+    @Override
+    public void taskCloned(Task template, Task clone) {
+        pendingClones.get().put(clone, template);
+    }
+    
+    // With syncWrites, waits once for the last event of the batch instead of for each
+    @Override
+    public void beginBatch() {
+        if (syncWrites) {
+            batch.set(new long[1]);
+        }
+    }
+    
+    @Override
+    public void endBatch() {
+        long[] batched = batch.get();
+        if (batched != null) {
+            batch.remove();
+            if (batched[0] > 0) {
+                awaitWritten(batched[0]);
+                checkFailure();
+            }
+        }
+    }
+    
+    // A removed subproject takes its tasks along; each gets a tombstone
+    @Override
+    public void componentRemoved(Project parent, TaskComponent component) {
+        String parentPath = pathOf(parent);
+        if (component instanceof TaskItem) {
+            append(TaskChangeType.REMOVED, ((TaskItem) component).getTask(), parentPath, null);
+            return;
+        }
+        ComponentWalk walk = ComponentWalk.of(component);
+        for (TaskComponent next = walk.next(); next != null; next = walk.next()) {
+            if (next instanceof TaskItem) {
+                String path = pathOf(walk.parent());
+                append(TaskChangeType.REMOVED, ((TaskItem) next).getTask(),
+                       parentPath == null ? path : parentPath + "/" + path, null);
+            }
+        }
+    }
+    
+    @Override
+    public void taskAssigned(Task task, String previousAssignee) {
+        if (!Objects.equals(previousAssignee, task.getAssignee())) {
+            append(TaskChangeType.ASSIGNED, task, projectPathOf(task), previousAssignee);
+        }
+    }
+    
+    @Override
+    public void taskStateChanged(Task task, TaskState previous) {
+        if (previous != task.getTaskState()) {
+            append(TaskChangeType.TRANSITIONED, task, projectPathOf(task), previous.getDescription());
+        }
+    }
+    
+    @Override
+    public void memberAdded(TeamMember member) {
+    }
+    
+    @Override
+    public void templateAdded(Task template) {
+    }
+    
+    @Override
+    public void projectRenamed(Project project) {
+    }
+    
+    @Override
+    public void memberRenamed(String oldName, TeamMember member) {
+        TaskManagementSystem tms = this.tms;
+        if (tms != null) {
+            for (Task task : tms.getTasksAssignedTo(member)) {
+                append(TaskChangeType.ASSIGNED, task, projectPathOf(task), oldName);
+            }
+        }
+    }
+    
+    @Override
+    public void memberRemoved(TeamMember member) {
+    }
+    
+    // Reordering inside one project is not a task event; a moved subproject moves its tasks
+    @Override
+    public void componentMoved(Project from, Project to, TaskComponent component, TaskComponent before) {
+        if (from == to) {
+            return;
+        }
+        String fromPath = pathOf(from);
+        if (component instanceof TaskItem) {
+            append(TaskChangeType.MOVED, ((TaskItem) component).getTask(), pathOf(to), fromPath);
+            return;
+        }
+        int toLength = pathOf(to).length();
+        ComponentWalk walk = ComponentWalk.of(component);
+        for (TaskComponent next = walk.next(); next != null; next = walk.next()) {
+            if (next instanceof TaskItem) {
+                String path = pathOf(walk.parent());
+                append(TaskChangeType.MOVED, ((TaskItem) next).getTask(), path, fromPath + path.substring(toLength));
+            }
+        }
+    }
+    
+    private String projectPathOf(Task task) {
+        TaskManagementSystem tms = this.tms;
+        return tms == null ? null : pathOf(tms.findParentProject(task.getId()));
+    }
+    
+    private static String pathOf(Project project) {
+        if (project == null) {
+            return null;
+        }
+        StringBuilder path = new StringBuilder();
+        for (Project next : project.getPathFromRoot()) {
+            if (path.length() > 0) {
+                path.append('/');
+            }
+            path.append(next.getName());
+        }
+        return path.toString();
+    }
+    
+    // Log
+    
+    // The task is read under the append lock, so the last event for a task always carries
+    // its latest values, which is what compaction relies on
+    private void append(TaskChangeType type, Task task, String projectPath, String previous) {
+        long sequence;
+        synchronized (appendLock) {
+            if (closed) {
+                throw new IllegalStateException("TaskChangeFeed is closed");
+            }
+            checkFailure();
+            sequence = appendedSequence + 1;
+            TaskChangeEvent event = type == TaskChangeType.REMOVED
+                ? new TaskChangeEvent(sequence, System.currentTimeMillis(), type, task.getId(), null, null, null, null,
+                                null, projectPath, previous)
+                : new TaskChangeEvent(sequence, System.currentTimeMillis(), type, task.getId(), task.getTitle(),
+                                task.getDescription(), task.getDueDate(), task.getAssignee(),
+                                task.getTaskState().getDescription(), projectPath, previous);
+            try {
+                record.reset();
+                recordOut.writeInt(0);
+                recordOut.writeInt(0);
+                event.writeTo(recordOut);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            int length = record.size() - HEADER_BYTES;
+            crc.reset();
+            crc.update(record.array(), HEADER_BYTES, length);
+            ByteBuffer frame = ByteBuffer.wrap(record.array(), 0, record.size());
+            frame.putInt(0, length);
+            frame.putInt(4, (int) crc.getValue());
+            pending.write(record.array(), 0, record.size());
+            pendingIds.add(task.getId());
+            appendedSequence = sequence;
+            appendLock.notifyAll();
+        }
+        if (syncWrites) {
+            long[] batched = batch.get();
+            if (batched != null) {
+                batched[0] = sequence;
+            } else {
+                awaitWritten(sequence);
+                checkFailure();
+            }
+        }
+    }
+    
+    // Returns early, leaving the rest unwritten, only if the writer failed or the thread
+    // was interrupted
+    private void awaitWritten(long sequence) {
+        synchronized (appendLock) {
+            while (lastSequence < sequence && failure == null) {
+                try {
+                    appendLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    
+    private void checkFailure() {
+        synchronized (appendLock) {
+            if (failure != null) {
+                throw new UncheckedIOException("Change feed write failed", failure);
+            }
+        }
+    }
+    
+    // Segment metadata, latestByTask and lastSequence only move once a batch is written,
+    // so readers and compaction never see an event that is not in the file
+    private void writeLoop() {
+        TaskStore.Buffer written = new TaskStore.Buffer(64 * 1024);
+        List<String> writtenIds = new ArrayList<>();
+        while (true) {
+            Segment segment;
+            synchronized (appendLock) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        appendLock.wait();
+                    } catch (InterruptedException e) {
+                        failure = new InterruptedIOException("Change feed writer interrupted");
+                        appendLock.notifyAll();
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                TaskStore.Buffer full = pending;
+                pending = written;
+                written = full;
+                List<String> fullIds = pendingIds;
+                pendingIds = writtenIds;
+                writtenIds = fullIds;
+                segment = active;
+            }
+            long position = segment.size;
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(written.array(), 0, written.size());
+                while (buffer.hasRemaining()) {
+                    segment.channel.write(buffer, position + buffer.position());
+                }
+                if (syncWrites) {
+                    segment.channel.force(false);
+                }
+            } catch (IOException e) {
+                synchronized (appendLock) {
+                    failure = e;
+                    appendLock.notifyAll();
+                }
+                return;
+            }
+            ByteBuffer frames = ByteBuffer.wrap(written.array(), 0, written.size());
+            for (int at = 0, i = 0; at < written.size(); i++) {
+                int frameLength = HEADER_BYTES + frames.getInt(at);
+                long sequence = frames.getLong(at + HEADER_BYTES + 1);
+                segment.added(sequence, position + at, frameLength);
+                latestByTask.put(writtenIds.get(i), sequence);
+                at += frameLength;
+            }
+            written.reset();
+            writtenIds.clear();
+            synchronized (appendLock) {
+                lastSequence = segment.lastSequence;
+                if (segment.size >= segmentBytes) {
+                    try {
+                        segment.channel.force(false);
+                        active = newSegment(lastSequence + 1);
+                    } catch (IOException e) {
+                        failure = e;
+                        appendLock.notifyAll();
+                        return;
+                    }
+                }
+                appendLock.notifyAll();
+            }
+        }
+    }
+    
+    private Segment newSegment(long baseSequence) throws IOException {
+        Path path = directory.resolve(String.format("feed-%020d.log", baseSequence));
+        Segment segment = new Segment(baseSequence, path, FileChannel.open(path, StandardOpenOption.CREATE,
+                                                                           StandardOpenOption.READ,
+                                                                           StandardOpenOption.WRITE));
+        segments.put(baseSequence, segment);
+        return segment;
+    }
+    
+    // The segment that may hold fromSequence and every one after it
+    private Collection<Segment> segmentsFrom(long fromSequence) {
+        Long first = segments.floorKey(fromSequence);
+        return segments.tailMap(first != null ? first : fromSequence).values();
+    }
+    
+    private static long startOf(Segment segment, long fromSequence, long end) throws IOException {
+        RecordReader reader = new RecordReader(segment.channel, segment.seekStart(fromSequence), end);
+        while (reader.next()) {
+            if (reader.sequence() >= fromSequence) {
+                return reader.position();
+            }
+        }
+        return end;
+    }
+    
+    // Compaction
+    
+    // The rewrite goes to a temporary file that atomically replaces the segment, and its
+    // channel becomes the new segment's, so a crash leaves either the old or the new file
+    private long compact(Segment segment, long tombstoneHorizon) throws IOException {
+        Path tmp = directory.resolve(segment.path.getFileName() + ".compact");
+        FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        Segment rewritten = new Segment(segment.baseSequence, segment.path, channel);
+        boolean dropped = false;
+        try {
+            TaskStore.Buffer batch = new TaskStore.Buffer(64 * 1024);
+            long written = 0;
+            RecordReader reader = new RecordReader(segment.channel, 0, segment.size);
+            while (reader.next()) {
+                long sequence = reader.sequence();
+                String taskId = reader.taskId();
+                Long latest = latestByTask.get(taskId);
+                if (latest == null || latest != sequence) {
+                    dropped = true;
+                    continue;
+                }
+                if (reader.type() == TaskChangeType.REMOVED.ordinal() && sequence < tombstoneHorizon) {
+                    latestByTask.remove(taskId, sequence);
+                    dropped = true;
+                    continue;
+                }
+                rewritten.added(sequence, written + batch.size(), reader.frameLength());
+                reader.copyFrame(batch);
+                if (batch.size() >= 64 * 1024) {
+                    written += writeFully(channel, batch, written);
+                }
+            }
+            written += writeFully(channel, batch, written);
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        if (!dropped) {
+            channel.close();
+            Files.delete(tmp);
+            return 0;
+        }
+        segmentLock.writeLock().lock();
+        try {
+            if (rewritten.size == 0) {
+                channel.close();
+                Files.delete(tmp);
+                Files.delete(segment.path);
+                segments.remove(segment.baseSequence);
+            } else {
+                Files.move(tmp, segment.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                segments.put(segment.baseSequence, rewritten);
+            }
+            segment.channel.close();
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+        return segment.size - rewritten.size;
+    }
+    
+    private static long writeFully(FileChannel channel, TaskStore.Buffer batch, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(batch.array(), 0, batch.size());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        long count = batch.size();
+        batch.reset();
+        return count;
+    }
+    
+    private List<Path> segmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(p -> p.getFileName().toString().matches("feed-\\d+\\.log")).forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(TaskChangeFeed::baseSequence));
+        return files;
+    }
+    
+    private static long baseSequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(5, name.length() - 4));
+    }
+}
+
+// A consumer's position in a TaskChangeFeed. Store getNextSequence() to resume from the
+// same place later, in this process or another one.
+final class FeedCursor {
+    private final TaskChangeFeed feed;
+    private long nextSequence;
+    
+    FeedCursor(TaskChangeFeed feed, long fromSequence) {
+        this.feed = feed;
+        this.nextSequence = fromSequence;
+    }
+    
+    // Up to 'max' events from the cursor on; empty when caught up
+    public List<TaskChangeEvent> poll(int max) throws IOException {
+        List<TaskChangeEvent> events = feed.read(nextSequence, max);
+        if (!events.isEmpty()) {
+            nextSequence = events.get(events.size() - 1).getSequence() + 1;
+        }
+        return events;
+    }
+    
+    // Same as poll, but waits up to the timeout for new events when caught up
+    public List<TaskChangeEvent> poll(int max, long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        List<TaskChangeEvent> events = poll(max);
+        if (events.isEmpty() && feed.awaitAfter(nextSequence - 1, timeout, unit)) {
+            events = poll(max);
+        }
+        return events;
+    }
+    
+    public long getNextSequence() {
+        return nextSequence;
+    }
+}
+
+// Struct-of-arrays task storage addressed by int handles. Ids, titles and descriptions
+// are UTF-8 in one shared byte heap, assignees and free-text due dates are dictionary ids,
+// ISO due dates are epoch days, and the state is a byte index into the workflow's states,
+// so a stored task costs a few array slots instead of a Task, a TaskItem and their
+// strings. TaskManagementSystem uses one as its compact archive of completed tasks.
+// Rows are copies, not views: add copies the task's fields in, and toTask builds a new
+// Task each time, so changing either side afterwards does not affect the other.
+class CompactTaskTable {
+    private static final int NO_DUE_DATE = -1;
+    private static final int NO_TEXT = -1;
+    
+    private final TaskWorkflow workflow;
+    private final List<TaskState> states = new ArrayList<>();
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> dictionaryIds = new HashMap<>();
+    
+    // Each string is a 4-byte length followed by its UTF-8 bytes
+    private byte[] text = new byte[1024];
+    private int textSize;
+    private int[] ids = new int[16];
+    private int[] idHashes = new int[16];
+    private int[] titles = new int[16];
+    private int[] descriptions = new int[16];
+    private int[] assignees = new int[16];
+    private byte[] stateIds = new byte[16];
+    // >= 0: epoch day; -1: none; <= -2: free text, dictionary id -(value + 2)
+    private int[] dueDates = new int[16];
+    // The project a task was in when it was added, or null
+    private Project[] projects = new Project[16];
+    private int size;
+    // Open-addressing id -> handle table; slots hold handle + 1, 0 means empty
+    private int[] slots = new int[32];
+    
+    public CompactTaskTable() {
+        this(TaskWorkflow.standard());
+    }
+    
+    public CompactTaskTable(TaskWorkflow workflow) {
+        this.workflow = workflow;
+    }
+    
+    public TaskWorkflow getWorkflow() {
+        return workflow;
+    }
+    
+    public int add(Task task) {
+        return add(task, null);
+    }
+    
+    public synchronized int add(Task task, Project project) {
+        byte[] id = task.getId().getBytes(StandardCharsets.UTF_8);
+        if (find(id) >= 0) {
+            throw new IllegalArgumentException("Duplicate task id " + task.getId());
+        }
+        if (size == ids.length) {
+            grow();
+        }
+        int handle = size++;
+        ids[handle] = appendText(id);
+        idHashes[handle] = Arrays.hashCode(id);
+        titles[handle] = appendText(task.getTitle());
+        descriptions[handle] = appendText(task.getDescription());
+        assignees[handle] = encode(task.getAssignee());
+        stateIds[handle] = stateId(task.getTaskState());
+        dueDates[handle] = encodeDueDate(task.getDueDate());
+        projects[handle] = project;
+        insertSlot(handle);
+        return handle;
+    }
+    
+    public synchronized int find(String id) {
+        return find(id.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    public synchronized String getId(int handle) {
+        return readText(ids[handle]);
+    }
+    
+    public synchronized String getTitle(int handle) {
+        return readText(titles[handle]);
+    }
+    
+    public synchronized String getDescription(int handle) {
+        return readText(descriptions[handle]);
+    }
+    
+    public synchronized String getAssignee(int handle) {
+        return decode(assignees[handle]);
+    }
+    
+    public synchronized void setAssignee(int handle, String assignee) {
+        assignees[handle] = encode(assignee);
+    }
+    
+    public synchronized TaskState getTaskState(int handle) {
+        return states.get(stateIds[handle]);
+    }
+    
+    public synchronized void setTaskState(int handle, TaskState state) {
+        stateIds[handle] = stateId(state);
+    }
+    
+    public synchronized boolean moveToNextState(int handle) {
+        TaskState next = workflow.getNextState(states.get(stateIds[handle]));
+        if (next == null) {
+            return false;
+        }
+        stateIds[handle] = stateId(next);
+        return true;
+    }
+    
+    // Epoch day of an ISO due date, or -1 if the task has none or it is free text
+    public synchronized int getDueEpochDay(int handle) {
+        return Math.max(dueDates[handle], NO_DUE_DATE);
+    }
+    
+    public synchronized String getDueDate(int handle) {
+        int due = dueDates[handle];
+        if (due >= 0) {
+            return LocalDate.ofEpochDay(due).toString();
+        }
+        return due == NO_DUE_DATE ? null : dictionary.get(-(due + 2));
+    }
+    
+    public synchronized Project getProject(int handle) {
+        return projects[handle];
+    }
+    
+    // A new Task with the row's current fields; see the class comment
+    public synchronized Task toTask(int handle) {
+        Task task = new Task(readText(ids[handle]), readText(titles[handle]), readText(descriptions[handle]),
+                             getDueDate(handle), workflow);
+        task.setAssignee(decode(assignees[handle]));
+        task.setTaskState(states.get(stateIds[handle]));
+        return task;
+    }
+    
+    private int find(byte[] id) {
+        int hash = Arrays.hashCode(id);
+        int mask = slots.length - 1;
+        for (int i = spread(hash) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int handle = slots[i] - 1;
+            if (idHashes[handle] == hash && textEquals(ids[handle], id)) {
+                return handle;
+            }
+        }
+        return -1;
+    }
+    
+    private byte stateId(TaskState state) {
+        int id = states.indexOf(state);
+        if (id < 0) {
+            if (states.size() == Byte.MAX_VALUE) {
+                throw new IllegalStateException("Too many distinct task states");
+            }
+            id = states.size();
+            states.add(state);
+        }
+        return (byte) id;
+    }
+    
+    private int encode(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = dictionaryIds.get(value);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.add(value);
+            dictionaryIds.put(value, id);
+        }
+        return id;
+    }
+    
+    private String decode(int id) {
+        return id < 0 ? null : dictionary.get(id);
+    }
+    
+    private int encodeDueDate(String dueDate) {
+        if (dueDate == null) {
+            return NO_DUE_DATE;
+        }
+        try {
+            long epochDay = LocalDate.parse(dueDate).toEpochDay();
+            if (epochDay >= 0 && epochDay <= Integer.MAX_VALUE && LocalDate.ofEpochDay(epochDay).toString().equals(dueDate)) {
+                return (int) epochDay;
+            }
+        } catch (DateTimeParseException e) {
+            // Free text such as "Every Friday"
+        }
+        return -(encode(dueDate) + 2);
+    }
+    
+    private int appendText(String value) {
+        return value == null ? NO_TEXT : appendText(value.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private int appendText(byte[] bytes) {
+        int needed = textSize + 4 + bytes.length;
+        if (needed < 0) {
+            throw new IllegalStateException("Compact task table text is full");
+        }
+        if (needed > text.length) {
+            text = Arrays.copyOf(text, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, text.length * 2L)));
+        }
+        int offset = textSize;
+        text[offset] = (byte) (bytes.length >>> 24);
+        text[offset + 1] = (byte) (bytes.length >>> 16);
+        text[offset + 2] = (byte) (bytes.length >>> 8);
+        text[offset + 3] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, text, offset + 4, bytes.length);
+        textSize = needed;
+        return offset;
+    }
+    
+    private int textLength(int offset) {
+        return (text[offset] & 0xFF) << 24 | (text[offset + 1] & 0xFF) << 16
+               | (text[offset + 2] & 0xFF) << 8 | (text[offset + 3] & 0xFF);
+    }
+    
+    private String readText(int offset) {
+        return offset == NO_TEXT ? null : new String(text, offset + 4, textLength(offset), StandardCharsets.UTF_8);
+    }
+    
+    private boolean textEquals(int offset, byte[] bytes) {
+        int length = textLength(offset);
+        return length == bytes.length
+               && Arrays.equals(text, offset + 4, offset + 4 + length, bytes, 0, length);
+    }
+    
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        idHashes = Arrays.copyOf(idHashes, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        descriptions = Arrays.copyOf(descriptions, capacity);
+        assignees = Arrays.copyOf(assignees, capacity);
+        stateIds = Arrays.copyOf(stateIds, capacity);
+        dueDates = Arrays.copyOf(dueDates, capacity);
+        projects = Arrays.copyOf(projects, capacity);
+        slots = new int[capacity * 2];
+        for (int handle = 0; handle < size; handle++) {
+            insertSlot(handle);
+        }
+    }
+    
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+    
+    private void insertSlot(int handle) {
+        int mask = slots.length - 1;
+        int i = spread(idHashes[handle]) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = handle + 1;
+    }
+}
+
+// Read-only columnar snapshot of the whole system, loaded through a MappedByteBuffer.
+// Task fields are stored as int columns; assignee, state, due date and member names are
+// dictionary encoded and the other strings live in a shared heap. Read on its own, tasks
+// are materialized on first access, so opening it costs the same however many tasks it
+// holds. TaskStore writes one at every checkpoint and recovers from it, loading every
+// task (see loadInto); tasks in the system's compact archive are written as ordinary
+// tasks of the project they came from.
+// Layout (all ints): header, dictionary offsets, task columns (tasks, then templates with
+// no project), project columns, member names, task rows sorted by id, then the string
+// heap. A single mapping limits files to 2 GB.
+class ColumnarSnapshot {
+    private static final int MAGIC = 0x54434F4C;
+    private static final int VERSION = 2;
+    private static final int HEADER_INTS = 9;
+    private static final int TASK_COLUMNS = 7;
+    private static final int ID = 0;
+    private static final int TITLE = 1;
+    private static final int DESCRIPTION = 2;
+    private static final int ASSIGNEE = 3;
+    private static final int STATE = 4;
+    private static final int DUE_DATE = 5;
+    private static final int PROJECT = 6;
+    // Name, parent row and the id log records refer to the project by
+    private static final int PROJECT_COLUMNS = 3;
+    
+    private final MappedByteBuffer buffer;
+    private final int taskCount;
+    private final int templateCount;
+    private final int rowCount;
+    private final int projectCount;
+    private final int memberCount;
+    private final int firstLogSegment;
+    private final String[] dictionary;
+    private final int columnsPos;
+    private final int projectsPos;
+    private final int membersPos;
+    private final int sortedPos;
+    private final int heapPos;
+    private final Map<Integer, Task> materialized = new ConcurrentHashMap<>();
+    
+    private ColumnarSnapshot(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a columnar task snapshot");
+        }
+        taskCount = buffer.getInt(8);
+        templateCount = buffer.getInt(12);
+        rowCount = taskCount + templateCount;
+        projectCount = buffer.getInt(16);
+        memberCount = buffer.getInt(20);
+        int dictionaryCount = buffer.getInt(24);
+        firstLogSegment = buffer.getInt(32);
+        int dictionaryPos = HEADER_INTS * 4;
+        columnsPos = dictionaryPos + dictionaryCount * 4;
+        projectsPos = columnsPos + TASK_COLUMNS * rowCount * 4;
+        membersPos = projectsPos + PROJECT_COLUMNS * projectCount * 4;
+        sortedPos = membersPos + memberCount * 4;
+        heapPos = sortedPos + taskCount * 4;
+        // The dictionary is small (distinct assignees, states, due dates and member names),
+        // so decode it eagerly
+        dictionary = new String[dictionaryCount];
+        for (int i = 0; i < dictionaryCount; i++) {
+            dictionary[i] = readString(buffer.getInt(dictionaryPos + i * 4));
+        }
+    }
+    
+    public static ColumnarSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new ColumnarSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+    
+    // Tasks in projects; templates are not counted
+    public int getTaskCount() {
+        return taskCount;
+    }
+    
+    public int getTemplateCount() {
+        return templateCount;
+    }
+    
+    public int getProjectCount() {
+        return projectCount;
+    }
+    
+    public int getMaterializedCount() {
+        return materialized.size();
+    }
+    
+    // The first TaskStore log segment the snapshot does not cover; 0 outside a TaskStore
+    public int getFirstLogSegment() {
+        return firstLogSegment;
+    }
+    
+    public Task getTask(int row) {
+        return materialized.computeIfAbsent(row, this::decodeTask);
+    }
+    
+    // Binary search over the id-sorted rows; compares UTF-8 bytes in place
+    public Task findTask(String id) {
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = taskCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int row = buffer.getInt(sortedPos + mid * 4);
+            int cmp = compareString(column(ID, row), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return getTask(row);
+            }
+        }
+        return null;
+    }
+    
+    public int getTaskProject(int row) {
+        return column(PROJECT, row);
+    }
+    
+    public String getProjectName(int projectRow) {
+        return readString(projectColumn(projectRow, 0));
+    }
+    
+    public int getProjectParent(int projectRow) {
+        return projectColumn(projectRow, 1);
+    }
+    
+    public int getProjectId(int projectRow) {
+        return projectColumn(projectRow, 2);
+    }
+    
+    // Builds members, templates and the full composite tree in tms, decoding every task
+    // afresh rather than handing out the instances getTask caches. A running system cannot
+    // take tasks lazily: its tree, id and secondary indexes and member workloads all hold
+    // Task objects, and a query by assignee, state or due date, or a roll-up, must see
+    // every task without its id being asked for first. Lazy decoding is for reading a
+    // snapshot on its own, through open and findTask.
+    public void loadInto(TaskManagementSystem tms) {
+        loadInto(tms, null);
+    }
+    
+    // Also fills projectsById with each project under the id it was written with
+    void loadInto(TaskManagementSystem tms, Map<Integer, Project> projectsById) {
+        for (int i = 0; i < memberCount; i++) {
+            tms.addTeamMember(new TeamMember(lookup(buffer.getInt(membersPos + i * 4))));
+        }
+        Project[] projects = new Project[projectCount];
+        for (int i = 0; i < projectCount; i++) {
+            int parent = getProjectParent(i);
+            if (parent < 0) {
+                projects[i] = tms.createProject(getProjectName(i));
+            } else {
+                projects[i] = new Project(getProjectName(i));
+                projects[parent].add(projects[i]);
+            }
+            if (projectsById != null) {
+                projectsById.put(getProjectId(i), projects[i]);
+            }
+        }
+        // Rows come in pre-order, so each project's tasks are added in runs with one addAll
+        List<TaskItem> run = new ArrayList<>();
+        for (int row = 0; row < taskCount; row++) {
+            run.add(new TaskItem(decodeTask(row)));
+            int project = getTaskProject(row);
+            if (row + 1 < taskCount && getTaskProject(row + 1) == project) {
+                continue;
+            }
+            projects[project].addAll(run);
+            for (TaskItem item : run) {
+                Task task = item.getTask();
+                TeamMember member = task.getAssignee() != null ? tms.findTeamMemberByName(task.getAssignee()) : null;
+                if (member != null) {
+                    member.restoreAssignedTask(task);
+                }
+            }
+            run.clear();
+        }
+        for (int row = taskCount; row < rowCount; row++) {
+            tms.addTemplateTask(decodeTask(row));
+        }
+    }
+    
+    private int column(int column, int row) {
+        return buffer.getInt(columnsPos + (column * rowCount + row) * 4);
+    }
+    
+    private int projectColumn(int projectRow, int column) {
+        return buffer.getInt(projectsPos + (projectRow * PROJECT_COLUMNS + column) * 4);
+    }
+    
+    private Task decodeTask(int row) {
+        Task task = new Task(readString(column(ID, row)), readString(column(TITLE, row)),
+                             readString(column(DESCRIPTION, row)), lookup(column(DUE_DATE, row)));
+        task.setAssignee(lookup(column(ASSIGNEE, row)));
+        TaskState state = task.getWorkflow().findState(lookup(column(STATE, row)));
+        if (state != null) {
+            task.setTaskState(state);
+        }
+        return task;
+    }
+    
+    private String lookup(int dictionaryId) {
+        return dictionaryId < 0 ? null : dictionary[dictionaryId];
+    }
+    
+    private String readString(int offset) {
+        if (offset < 0) {
+            return null;
+        }
+        int length = buffer.getInt(heapPos + offset);
+        byte[] bytes = new byte[length];
+        buffer.get(heapPos + offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private int compareString(int offset, byte[] key) {
+        int length = buffer.getInt(heapPos + offset);
+        int start = heapPos + offset + 4;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Byte.toUnsignedInt(buffer.get(start + i)) - Byte.toUnsignedInt(key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+    
+    // Writing
+    
+    // Standalone snapshot; projects are numbered by row
+    public static void write(TaskManagementSystem tms, Path file) throws IOException {
+        write(tms, file, null, 0);
+    }
+    
+    // projectIds gives the id stored for each project, or null to use the row
+    static void write(TaskManagementSystem tms, Path file, ToIntFunction<Project> projectIds,
+                      int firstLogSegment) throws IOException {
+        List<Task> tasks = new ArrayList<>();
+        List<Integer> taskProjects = new ArrayList<>();
+        List<Project> projects = new ArrayList<>();
+        List<Integer> projectParents = new ArrayList<>();
+        collect(tms.getProjects(), tasks, taskProjects, projects, projectParents);
+        CompactTaskTable archive = tms.getCompactArchive();
+        if (archive != null) {
+            Map<Project, Integer> projectRows = new IdentityHashMap<>();
+            for (int i = 0; i < projects.size(); i++) {
+                projectRows.put(projects.get(i), i);
+            }
+            for (int handle = 0; handle < archive.size(); handle++) {
+                // An archived task whose project has since been removed went with it
+                Integer row = projectRows.get(archive.getProject(handle));
+                if (row != null) {
+                    tasks.add(archive.toTask(handle));
+                    taskProjects.add(row);
+                }
+            }
+        }
+        int taskCount = tasks.size();
+        List<Task> templates = tms.getTemplateTasks();
+        tasks.addAll(templates);
+        List<TeamMember> members = tms.getTeamMembers();
+        
+        ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        Map<String, Integer> dictionaryIds = new HashMap<>();
+        List<Integer> dictionaryOffsets = new ArrayList<>();
+        int[][] columns = new int[TASK_COLUMNS][tasks.size()];
+        for (int row = 0; row < tasks.size(); row++) {
+            Task task = tasks.get(row);
+            columns[ID][row] = appendString(heap, task.getId());
+            columns[TITLE][row] = appendString(heap, task.getTitle());
+            columns[DESCRIPTION][row] = appendString(heap, task.getDescription());
+            columns[ASSIGNEE][row] = encode(heap, dictionaryIds, dictionaryOffsets, task.getAssignee());
+            columns[STATE][row] = encode(heap, dictionaryIds, dictionaryOffsets, task.getTaskState().getDescription());
+            columns[DUE_DATE][row] = encode(heap, dictionaryIds, dictionaryOffsets, task.getDueDate());
+            columns[PROJECT][row] = row < taskCount ? taskProjects.get(row) : -1;
+        }
+        int[] projectNames = new int[projects.size()];
+        for (int i = 0; i < projects.size(); i++) {
+            projectNames[i] = appendString(heap, projects.get(i).getName());
+        }
+        int[] memberNames = new int[members.size()];
+        for (int i = 0; i < members.size(); i++) {
+            memberNames[i] = encode(heap, dictionaryIds, dictionaryOffsets, members.get(i).getName());
+        }
+        // Sort rows by the same unsigned UTF-8 byte order that findTask searches with
+        byte[][] idBytes = new byte[taskCount][];
+        Integer[] sorted = new Integer[taskCount];
+        for (int i = 0; i < sorted.length; i++) {
+            idBytes[i] = tasks.get(i).getId().getBytes(StandardCharsets.UTF_8);
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> Arrays.compareUnsigned(idBytes[a], idBytes[b]));
+        
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(taskCount);
+            out.writeInt(templates.size());
+            out.writeInt(projects.size());
+            out.writeInt(members.size());
+            out.writeInt(dictionaryOffsets.size());
+            out.writeInt(heap.size());
+            out.writeInt(firstLogSegment);
+            for (int offset : dictionaryOffsets) {
+                out.writeInt(offset);
+            }
+            for (int[] column : columns) {
+                for (int value : column) {
+                    out.writeInt(value);
+                }
+            }
+            for (int i = 0; i < projects.size(); i++) {
+                out.writeInt(projectNames[i]);
+                out.writeInt(projectParents.get(i));
+                out.writeInt(projectIds != null ? projectIds.applyAsInt(projects.get(i)) : i);
+            }
+            for (int name : memberNames) {
+                out.writeInt(name);
+            }
+            for (int row : sorted) {
+                out.writeInt(row);
+            }
+            heap.writeTo(out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    // Pre-order walk, so every parent project gets a lower row than its children
+    private static void collect(List<Project> roots, List<Task> tasks, List<Integer> taskProjects,
+                                List<Project> projects, List<Integer> projectParents) {
+        // rows[d] is the row of the project most recently reached at depth d
+        int[] rows = new int[16];
+        ComponentWalk walk = new ComponentWalk(roots);
+        for (TaskComponent component = walk.next(); component != null; component = walk.next()) {
+            int depth = walk.depth();
+            int parent = depth == 0 ? -1 : rows[depth - 1];
+            if (component instanceof Project) {
+                if (depth == rows.length) {
+                    rows = Arrays.copyOf(rows, depth * 2);
+                }
+                rows[depth] = projects.size();
+                projects.add((Project) component);
+                projectParents.add(parent);
+            } else if (component instanceof TaskItem) {
+                tasks.add(((TaskItem) component).getTask());
+                taskProjects.add(parent);
+            }
+        }
+    }
+    
+    private static int encode(ByteArrayOutputStream heap, Map<String, Integer> ids, List<Integer> offsets, String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = offsets.size();
+            offsets.add(appendString(heap, value));
+            ids.put(value, id);
+        }
+        return id;
+    }
+    
+    private static int appendString(ByteArrayOutputStream heap, String value) {
+        if (value == null) {
+            return -1;
+        }
+        int offset = heap.size();
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        heap.write(bytes.length >>> 24);
+        heap.write(bytes.length >>> 16);
+        heap.write(bytes.length >>> 8);
+        heap.write(bytes.length);
+        heap.write(bytes, 0, bytes.length);
+        return offset;
+    }
+}
+
+// Streaming bulk import/export. Rows are "path,id,title,description,due,assignee,state",
+// where path is the project path such as "Web Development/Frontend". The same fields are
+// used as keys in JSON Lines. Quoted CSV fields may span lines.
+class TaskBulkIO {
+    private static final int BATCH_LINES = 8192;
+    private static final String[] COLUMNS = {"path", "id", "title", "description", "due", "assignee", "state"};
+    private static final String CSV_HEADER = String.join(",", COLUMNS);
+    // What comes before each value in a JSON Lines row: {"path": then ,"id": and so on
+    private static final String[] JSON_KEYS = new String[COLUMNS.length];
+    
+    static {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            JSON_KEYS[i] = (i == 0 ? "{\"" : ",\"") + COLUMNS[i] + "\":";
+        }
+    }
+    
+    public static class ImportResult {
+        private final long imported;
+        private final long rejected;
+        
+        ImportResult(long imported, long rejected) {
+            this.imported = imported;
+            this.rejected = rejected;
+        }
+        
+        public long getImported() {
+            return imported;
+        }
+        
+        public long getRejected() {
+            return rejected;
+        }
+    }
+    
+    // Lines are read on the calling thread; parsing them and building their tasks runs in
+    // batches on the executor. At most 'maxBatchesInFlight' batches are buffered, and the
+    // calling thread only checks ids and places finished batches in file order into a
+    // detached copy of the tree. That copy is attached once at the end, followed by a
+    // single batch notification instead of one per task.
+    public static ImportResult importTasks(TaskManagementSystem tms, Path file, RenderFormat format,
+                                           ExecutorService executor, int maxBatchesInFlight) throws IOException {
+        if (format == RenderFormat.TEXT) {
+            throw new IllegalArgumentException("Bulk import supports CSV and JSON_LINES");
+        }
+        Map<String, Project> staged = new HashMap<>();
+        List<Project> stagedRoots = new ArrayList<>();
+        // Staged tasks by staged root, in file order
+        Map<Project, List<Task>> stagedTasks = new IdentityHashMap<>();
+        Set<String> seenIds = new HashSet<>();
+        long imported = 0;
+        long rejected = 0;
+        ArrayDeque<Future<List<Row>>> inFlight = new ArrayDeque<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            CsvRecordReader records = format == RenderFormat.CSV ? new CsvRecordReader(reader) : null;
+            List<String> batch = new ArrayList<>(BATCH_LINES);
+            String line;
+            boolean first = true;
+            while (true) {
+                line = records != null ? records.readRecord() : reader.readLine();
+                if (line != null) {
+                    if (first && format == RenderFormat.CSV && line.equals(CSV_HEADER)) {
+                        first = false;
+                        continue;
+                    }
+                    first = false;
+                    if (!line.isEmpty()) {
+                        batch.add(line);
+                    }
+                }
+                if (batch.size() == BATCH_LINES || (line == null && !batch.isEmpty())) {
+                    List<String> lines = batch;
+                    inFlight.add(executor.submit(() -> parseBatch(tms, lines, format)));
+                    batch = new ArrayList<>(BATCH_LINES);
+                }
+                while (!inFlight.isEmpty() && (inFlight.size() > maxBatchesInFlight || line == null)) {
+                    for (Row row : await(inFlight.poll())) {
+                        Project root = stage(tms, row, staged, stagedRoots, seenIds, stagedTasks);
+                        if (root == null) {
+                            rejected++;
+                        } else {
+                            imported++;
+                        }
+                    }
+                }
+                if (line == null) {
+                    break;
+                }
+            }
+        } finally {
+            for (Future<List<Row>> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+        // Workloads count a task only once it is in the tree. If a root fails to attach, the
+        // roots before it stay attached and observers still hear about their tasks.
+        List<Task> attached = new ArrayList<>((int) imported);
+        try {
+            for (Project root : stagedRoots) {
+                attach(tms, root);
+                List<Task> tasks = stagedTasks.get(root);
+                for (Task task : tasks) {
+                    TeamMember member = task.getAssignee() != null ? tms.findTeamMemberByName(task.getAssignee()) : null;
+                    if (member != null) {
+                        member.restoreAssignedTask(task);
+                    }
+                }
+                attached.addAll(tasks);
+            }
+        } finally {
+            tms.notifyObserversOfBatch(attached);
+        }
+        return new ImportResult(imported, rejected);
+    }
+    
+    public static long exportTasks(TaskManagementSystem tms, Path file, RenderFormat format) throws IOException {
+        if (format == RenderFormat.TEXT) {
+            throw new IllegalArgumentException("Bulk export supports CSV and JSON_LINES");
+        }
+        long count = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (format == RenderFormat.CSV) {
+                out.write(CSV_HEADER);
+                out.newLine();
+            }
+            count = exportProjects(out, tms.getProjects(), format);
+        }
+        return count;
+    }
+    
+    private static long exportProjects(BufferedWriter out, List<Project> roots, RenderFormat format) throws IOException {
+        long count = 0;
+        // paths[d] is the path of the project most recently reached at depth d
+        String[] paths = new String[16];
+        ComponentWalk walk = new ComponentWalk(roots);
+        for (TaskComponent component = walk.next(); component != null; component = walk.next()) {
+            int depth = walk.depth();
+            if (component instanceof Project) {
+                String name = ((Project) component).getName();
+                if (depth == paths.length) {
+                    paths = Arrays.copyOf(paths, depth * 2);
+                }
+                paths[depth] = depth == 0 ? name : paths[depth - 1] + "/" + name;
+            } else if (component instanceof TaskItem) {
+                String path = paths[depth - 1];
+                Task task = ((TaskItem) component).getTask();
+                String[] row = {path, task.getId(), task.getTitle(), task.getDescription(), task.getDueDate(),
+                                task.getAssignee(), task.getTaskState().getDescription()};
+                if (format == RenderFormat.CSV) {
+                    for (int i = 0; i < row.length; i++) {
+                        if (i > 0) {
+                            out.write(',');
+                        }
+                        TreeRenderer.writeCsv(out, row[i]);
+                    }
+                } else {
+                    for (int i = 0; i < row.length; i++) {
+                        out.write(JSON_KEYS[i]);
+                        TreeRenderer.writeJson(out, row[i]);
+                    }
+                    out.write('}');
+                }
+                out.newLine();
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    // New root projects are attached whole; existing ones are merged with the staged root
+    private static void attach(TaskManagementSystem tms, Project stagedRoot) {
+        Project existing = tms.findProjectByName(stagedRoot.getName());
+        if (existing == null) {
+            tms.addProject(stagedRoot);
+        } else {
+            merge(existing, stagedRoot);
+        }
+    }
+    
+    // A staged subproject with the name of one of existing's subprojects is merged into it
+    // the same way, level by level; everything else goes into existing in one addAll. The
+    // staged project is discarded; detaching all its children at once is O(n).
+    private static void merge(Project existing, Project staged) {
+        Map<String, Project> subprojects = new HashMap<>();
+        for (TaskComponent child : existing.getTasks()) {
+            if (child instanceof Project) {
+                subprojects.putIfAbsent(((Project) child).getName(), (Project) child);
+            }
+        }
+        List<TaskComponent> children = staged.takeChildren();
+        List<TaskComponent> added = new ArrayList<>(children.size());
+        for (TaskComponent child : children) {
+            Project match = child instanceof Project ? subprojects.get(((Project) child).getName()) : null;
+            if (match != null) {
+                merge(match, (Project) child);
+            } else {
+                added.add(child);
+            }
+        }
+        if (!added.isEmpty()) {
+            existing.addAll(added);
+        }
+    }
+    
+    // A row as built on the executor: the task, not yet in any project, and its project path
+    private static final class Row {
+        final String path;
+        final TaskItem item;
+        
+        Row(String path, TaskItem item) {
+            this.path = path;
+            this.item = item;
+        }
+    }
+    
+    // Returns the staged root the task went under, or null if the row is rejected
+    private static Project stage(TaskManagementSystem tms, Row row, Map<String, Project> staged,
+                                 List<Project> stagedRoots, Set<String> seenIds,
+                                 Map<Project, List<Task>> stagedTasks) {
+        if (row == null) {
+            return null;
+        }
+        Task task = row.item.getTask();
+        if (!seenIds.add(task.getId()) || tms.findTaskById(task.getId()) != null) {
+            return null;
+        }
+        Project project = stagedProject(row.path, staged, stagedRoots);
+        project.add(row.item);
+        Project root = project;
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        stagedTasks.computeIfAbsent(root, k -> new ArrayList<>()).add(task);
+        return root;
+    }
+    
+    private static Project stagedProject(String path, Map<String, Project> staged, List<Project> stagedRoots) {
+        Project project = staged.get(path);
+        if (project != null) {
+            return project;
+        }
+        int slash = path.lastIndexOf('/');
+        project = new Project(slash < 0 ? path : path.substring(slash + 1));
+        if (slash < 0) {
+            stagedRoots.add(project);
+        } else {
+            stagedProject(path.substring(0, slash), staged, stagedRoots).add(project);
+        }
+        staged.put(path, project);
+        return project;
+    }
+    
+    // Like readLine, but a line break inside quotes belongs to the record and is kept as is
+    private static final class CsvRecordReader {
+        private final Reader in;
+        private final char[] buffer = new char[8192];
+        private final StringBuilder record = new StringBuilder();
+        private int position;
+        private int limit;
+        // Set after a record ended at '\r', so a following '\n' is skipped
+        private boolean skipLineFeed;
+        
+        CsvRecordReader(Reader in) {
+            this.in = in;
+        }
+        
+        // null at the end of the input
+        String readRecord() throws IOException {
+            record.setLength(0);
+            boolean quoted = false;
+            boolean read = false;
+            while (true) {
+                if (position == limit) {
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return read ? record.toString() : null;
+                    }
+                }
+                char c = buffer[position++];
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (c == '\n') {
+                        continue;
+                    }
+                }
+                read = true;
+                if (!quoted && (c == '\n' || c == '\r')) {
+                    skipLineFeed = c == '\r';
+                    return record.toString();
+                }
+                if (c == '"') {
+                    quoted = !quoted;
+                }
+                record.append(c);
+            }
+        }
+    }
+    
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to parse import batch", e.getCause());
+        }
+    }
+    
+    // Runs on the executor; malformed lines become null rows and are counted as rejected
+    private static List<Row> parseBatch(TaskManagementSystem tms, List<String> lines, RenderFormat format) {
+        List<Row> rows = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            rows.add(build(tms, format == RenderFormat.CSV ? parseCsv(line) : parseJson(line)));
+        }
+        return rows;
+    }
+    
+    // Rows without an id get a generated one, so generated ids do not follow file order
+    private static Row build(TaskManagementSystem tms, String[] fields) {
+        if (fields == null || fields[0] == null || fields[0].isEmpty()) {
+            return null;
+        }
+        String id = fields[1] == null || fields[1].isEmpty() ? tms.nextTaskId() : fields[1];
+        Task task = new Task(id, fields[2], fields[3], fields[4]);
+        if (fields[6] != null) {
+            TaskState state = task.getWorkflow().findState(fields[6]);
+            if (state == null) {
+                return null;
+            }
+            task.setTaskState(state);
+        }
+        if (fields[5] != null && !fields[5].isEmpty()) {
+            task.setAssignee(fields[5]);
+        }
+        return new Row(fields[0], new TaskItem(task));
+    }
+    
+    private static String[] parseCsv(String line) {
+        String[] row = new String[COLUMNS.length];
+        StringBuilder field = new StringBuilder();
+        int column = 0;
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == ',') {
+                if (column >= COLUMNS.length - 1) {
+                    return null;
+                }
+                row[column++] = field.length() == 0 && !wasQuoted ? null : field.toString();
+                field.setLength(0);
+                wasQuoted = false;
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted || column != COLUMNS.length - 1) {
+            return null;
+        }
+        row[column] = field.length() == 0 && !wasQuoted ? null : field.toString();
+        return row;
+    }
+    
+    // Flat objects with string or null values only, as written by exportTasks
+    private static String[] parseJson(String line) {
+        String[] row = new String[COLUMNS.length];
+        int[] pos = {skipSpace(line, 0)};
+        if (pos[0] >= line.length() || line.charAt(pos[0]) != '{') {
+            return null;
+        }
+        pos[0]++;
+        while (true) {
+            pos[0] = skipSpace(line, pos[0]);
+            if (pos[0] < line.length() && line.charAt(pos[0]) == '}') {
+                return row;
+            }
+            String key = readJsonString(line, pos);
+            pos[0] = skipSpace(line, pos[0]);
+            if (key == null || pos[0] >= line.length() || line.charAt(pos[0]) != ':') {
+                return null;
+            }
+            pos[0] = skipSpace(line, pos[0] + 1);
+            String value;
+            if (line.startsWith("null", pos[0])) {
+                value = null;
+                pos[0] += 4;
+            } else {
+                value = readJsonString(line, pos);
+                if (value == null) {
+                    return null;
+                }
+            }
+            int column = Arrays.asList(COLUMNS).indexOf(key);
+            if (column >= 0) {
+                row[column] = value;
+            }
+            pos[0] = skipSpace(line, pos[0]);
+            if (pos[0] < line.length() && line.charAt(pos[0]) == ',') {
+                pos[0]++;
+            } else if (pos[0] >= line.length() || line.charAt(pos[0]) != '}') {
+                return null;
+            }
+        }
+    }
+    
+    private static String readJsonString(String line, int[] pos) {
+        if (pos[0] >= line.length() || line.charAt(pos[0]) != '"') {
+            return null;
+        }
+        StringBuilder value = new StringBuilder();
+        for (int i = pos[0] + 1; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                pos[0] = i + 1;
+                return value.toString();
+            }
+            if (c == '\\' && i + 1 < line.length()) {
+                char escaped = line.charAt(++i);
+                switch (escaped) {
+                    case 'n': value.append('\n'); break;
+                    case 't': value.append('\t'); break;
+                    case 'r': value.append('\r'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'u':
+                        if (i + 4 >= line.length()) {
+                            return null;
+                        }
+                        int code = 0;
+                        for (int j = i + 1; j <= i + 4; j++) {
+                            int digit = Character.digit(line.charAt(j), 16);
+                            if (digit < 0) {
+                                return null;
+                            }
+                            code = code << 4 | digit;
+                        }
+                        value.append((char) code);
+                        i += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        return null;
+    }
+    
+    private static int skipSpace(String line, int pos) {
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+}
+
+// Due date schedule of a template, parsed from text such as "Every Friday"
+class RecurrenceRule {
+    private final ChronoUnit unit;
+    private final DayOfWeek dayOfWeek;
+    
+    private RecurrenceRule(ChronoUnit unit, DayOfWeek dayOfWeek) {
+        this.unit = unit;
+        this.dayOfWeek = dayOfWeek;
+    }
+    
+    public static RecurrenceRule daily() {
+        return new RecurrenceRule(ChronoUnit.DAYS, null);
+    }
+    
+    public static RecurrenceRule weekly(DayOfWeek dayOfWeek) {
+        return new RecurrenceRule(ChronoUnit.WEEKS, dayOfWeek);
+    }
+    
+    public static RecurrenceRule monthly() {
+        return new RecurrenceRule(ChronoUnit.MONTHS, null);
+    }
+    
+    // Accepts "Every day", "Every week", "Every month" and "Every <weekday>", in any case
+    public static RecurrenceRule parse(String text) {
+        String rule = text.trim().toUpperCase(Locale.ROOT);
+        if (!rule.startsWith("EVERY ")) {
+            throw new IllegalArgumentException("Unsupported recurrence: " + text);
+        }
+        String period = rule.substring("EVERY ".length()).trim();
+        switch (period) {
+            case "DAY":
+                return daily();
+            case "WEEK":
+                return new RecurrenceRule(ChronoUnit.WEEKS, null);
+            case "MONTH":
+                return monthly();
+            default:
+                try {
+                    return weekly(DayOfWeek.valueOf(period));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unsupported recurrence: " + text, e);
+                }
+        }
+    }
+    
+    // First occurrence on or after 'from'
+    public LocalDate first(LocalDate from) {
+        return dayOfWeek == null ? from : from.with(TemporalAdjusters.nextOrSame(dayOfWeek));
+    }
+    
+    // The n-th occurrence counting from first(from) as 0
+    public LocalDate occurrence(LocalDate from, int n) {
+        return first(from).plus(n, unit);
+    }
+}
+
+// Creates many instances of a template task in one call, e.g. one weekly report per
+// team for the next month. Instances share the template's title, description and
+// workflow, take their ids from one reserved range and are built on the executor.
+// Like cloneTemplate, instances start unassigned in the workflow's initial state.
+// The tree is updated once per project, each instance is journaled as a clone of the
+// template, and observers get a single batch notification for every instance that was
+// attached, even when adding to another project failed.
+class TemplateInstantiator {
+    private static final int CHUNK_SIZE = 8192;
+    
+    // Every project gets 'occurrences' instances, due on consecutive occurrences of the rule
+    public static List<Task> instantiate(TaskManagementSystem tms, Task template, List<Project> projects,
+                                         int occurrences, RecurrenceRule rule, LocalDate from,
+                                         ExecutorService executor) throws InterruptedException {
+        int total = Math.multiplyExact(projects.size(), occurrences);
+        if (total == 0) {
+            return Collections.emptyList();
+        }
+        // Instances of the same occurrence share one due date string
+        String[] dueDates = new String[occurrences];
+        for (int i = 0; i < occurrences; i++) {
+            dueDates[i] = rule.occurrence(from, i).toString();
+        }
+        IntFunction<String> ids = tms.reserveTaskIds(total);
+        Task[] instances = new Task[total];
+        TaskItem[] items = new TaskItem[total];
+        
+        List<Future<?>> futures = new ArrayList<>();
+        for (int start = 0; start < total; start += CHUNK_SIZE) {
+            int chunkStart = start;
+            int chunkEnd = Math.min(total, start + CHUNK_SIZE);
+            futures.add(executor.submit(() -> {
+                for (int i = chunkStart; i < chunkEnd; i++) {
+                    instances[i] = template.instantiate(ids.apply(i), dueDates[i % occurrences]);
+                    items[i] = new TaskItem(instances[i]);
+                }
+            }));
+        }
+        awaitAll(futures, true);
+        
+        futures.clear();
+        List<Task> created = Arrays.asList(instances);
+        for (int p = 0; p < projects.size(); p++) {
+            Project project = projects.get(p);
+            List<TaskItem> slice = Arrays.asList(items).subList(p * occurrences, (p + 1) * occurrences);
+            List<Task> clones = created.subList(p * occurrences, (p + 1) * occurrences);
+            futures.add(executor.submit(() -> {
+                tms.clonesCreated(template, clones);
+                project.addAll(slice);
+            }));
+        }
+        boolean attachedAll = false;
+        try {
+            // Not cancelled on failure: every other project's add runs to the end
+            awaitAll(futures, false);
+            attachedAll = true;
+        } finally {
+            tms.notifyObserversOfBatch(attachedAll ? created : attached(instances, items));
+        }
+        return created;
+    }
+    
+    private static List<Task> attached(Task[] instances, TaskItem[] items) {
+        List<Task> attached = new ArrayList<>();
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] != null && items[i].getParent() != null) {
+                attached.add(instances[i]);
+            }
+        }
+        return attached;
+    }
+    
+    // Waits for every future and rethrows the first failure; with cancelRest the futures
+    // still pending are cancelled as soon as one fails
+    private static void awaitAll(List<Future<?>> futures, boolean cancelRest) throws InterruptedException {
+        ExecutionException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                if (cancelRest) {
+                    for (Future<?> other : futures) {
+                        other.cancel(true);
+                    }
+                    break;
+                }
+            }
+        }
+        if (failure == null) {
+            return;
+        }
+        Throwable cause = failure.getCause();
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException("Template instantiation failed", cause);
+    }
+}
+
+// Hierarchical timing wheel: LEVELS wheels of 64 slots, each slot of level n spanning
+// 64^n ticks. Scheduling and cancelling are O(1); advancing one tick touches one slot,
+// plus one slot per level whenever a lower level wraps. Not thread-safe on its own.
+class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 6;
+    
+    static final class Timer<T> {
+        private final T payload;
+        private long deadline;
+        private Timer<T> prev;
+        private Timer<T> next;
+        private int level = -1;
+        private int slot;
+        
+        Timer(T payload, long deadline) {
+            this.payload = payload;
+            this.deadline = deadline;
+        }
+        
+        public T getPayload() {
+            return payload;
+        }
+        
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+    
+    // An array of Timer<T> cannot be created directly; this one only ever holds Timer<T>
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Timer<T>[][] slots = new Timer[LEVELS][SLOTS];
+    // Timers whose deadline had already passed when they were scheduled
+    private final List<Timer<T>> overdue = new ArrayList<>();
+    private long currentTick;
+    private int size;
+    
+    public TimingWheel(long startTick) {
+        this.currentTick = startTick;
+    }
+    
+    public long getCurrentTick() {
+        return currentTick;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public Timer<T> schedule(long deadlineTick, T payload) {
+        Timer<T> timer = new Timer<>(payload, deadlineTick);
+        size++;
+        if (deadlineTick <= currentTick) {
+            overdue.add(timer);
+        } else {
+            place(timer);
+        }
+        return timer;
+    }
+    
+    public boolean cancel(Timer<T> timer) {
+        if (timer.level >= 0) {
+            unlink(timer);
+        } else if (!overdue.remove(timer)) {
+            return false;
+        }
+        size--;
+        return true;
+    }
+    
+    // Moves time forward to 'tick', handing every timer that came due to 'expired' in deadline order
+    public void advanceTo(long tick, Consumer<T> expired) {
+        if (!overdue.isEmpty()) {
+            List<Timer<T>> due = new ArrayList<>(overdue);
+            overdue.clear();
+            for (Timer<T> timer : due) {
+                size--;
+                expired.accept(timer.payload);
+            }
+        }
+        while (currentTick < tick) {
+            currentTick++;
+            cascade();
+            Timer<T> timer = slots[0][(int) (currentTick & (SLOTS - 1))];
+            while (timer != null) {
+                Timer<T> next = timer.next;
+                unlink(timer);
+                size--;
+                expired.accept(timer.payload);
+                timer = next;
+            }
+        }
+    }
+    
+    // The lowest level on which the deadline and the current tick share every higher digit
+    private void place(Timer<T> timer) {
+        int level = 0;
+        while ((timer.deadline >>> (SLOT_BITS * (level + 1))) != (currentTick >>> (SLOT_BITS * (level + 1)))) {
+            level++;
+            if (level == LEVELS) {
+                throw new IllegalArgumentException("Deadline is too far ahead: tick " + timer.deadline);
+            }
+        }
+        int slot = (int) ((timer.deadline >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        timer.level = level;
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = slots[level][slot];
+        if (timer.next != null) {
+            timer.next.prev = timer;
+        }
+        slots[level][slot] = timer;
+    }
+    
+    private void unlink(Timer<T> timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            slots[timer.level][timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.level = -1;
+    }
+    
+    // When a level wraps, the next slot of the level above is spread over the levels below
+    private void cascade() {
+        int level = 1;
+        while (level < LEVELS && (currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+            level++;
+        }
+        for (int l = level - 1; l >= 1; l--) {
+            int slot = (int) ((currentTick >>> (SLOT_BITS * l)) & (SLOTS - 1));
+            Timer<T> timer = slots[l][slot];
+            slots[l][slot] = null;
+            while (timer != null) {
+                Timer<T> next = timer.next;
+                timer.level = -1;
+                place(timer);
+                timer = next;
+            }
+        }
+    }
+}
+
+// Acts on the recurrence text of template tasks ("Every Friday"): each scheduled template
+// gets an instance in its project 'leadTime' before every occurrence, and each instance
+// gets a DUE reminder when its due date starts and an OVERDUE one a day later unless it
+// is completed by then. Pending work lives in a TimingWheel, so a tick costs the same
+// with 100k templates as with one. Time comes only from the clock passed in.
+class RecurrenceScheduler implements AutoCloseable {
+    private enum JobKind {
+        MATERIALIZE,
+        DUE,
+        OVERDUE
+    }
+    
+    private static final class Job {
+        final JobKind kind;
+        final Task task;
+        final Project project;
+        final RecurrenceRule rule;
+        final LocalDate anchor;
+        final int occurrence;
+        
+        Job(JobKind kind, Task task, Project project, RecurrenceRule rule, LocalDate anchor, int occurrence) {
+            this.kind = kind;
+            this.task = task;
+            this.project = project;
+            this.rule = rule;
+            this.anchor = anchor;
+            this.occurrence = occurrence;
+        }
+        
+        LocalDate date() {
+            return rule.occurrence(anchor, occurrence);
+        }
+    }
+    
+    private final TaskManagementSystem tms;
+    private final Clock clock;
+    private final long tickMillis;
+    private final Duration leadTime;
+    private final TimingWheel<Job> wheel;
+    // Pending MATERIALIZE timer of each scheduled template, for unscheduling
+    private final Map<Task, TimingWheel.Timer<Job>> templates = new IdentityHashMap<>();
+    private ScheduledFuture<?> ticker;
+    
+    public RecurrenceScheduler(TaskManagementSystem tms, Clock clock, Duration tick, Duration leadTime) {
+        if (tick.toMillis() <= 0) {
+            throw new IllegalArgumentException("Tick must be at least one millisecond");
+        }
+        this.tms = tms;
+        this.clock = clock;
+        this.tickMillis = tick.toMillis();
+        this.leadTime = leadTime;
+        this.wheel = new TimingWheel<>(Math.floorDiv(clock.millis(), tickMillis));
+    }
+    
+    // Parses the template's recurrence text; throws IllegalArgumentException if it is not a rule
+    public synchronized void scheduleTemplate(Task template, Project project) {
+        RecurrenceRule rule = RecurrenceRule.parse(template.getDueDate());
+        unscheduleTemplate(template);
+        LocalDate today = LocalDate.now(clock);
+        scheduleMaterialize(new Job(JobKind.MATERIALIZE, template, project, rule, today, 0));
+    }
+    
+    public synchronized boolean unscheduleTemplate(Task template) {
+        TimingWheel.Timer<Job> timer = templates.remove(template);
+        return timer != null && wheel.cancel(timer);
+    }
+    
+    public synchronized int getPendingCount() {
+        return wheel.size();
+    }
+    
+    // Drives tick() from the executor until close()
+    public synchronized void start(ScheduledExecutorService executor) {
+        if (ticker == null) {
+            ticker = executor.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+    
+    // Runs everything that came due up to the clock's current time
+    public void tick() {
+        List<Job> expired = new ArrayList<>();
+        synchronized (this) {
+            wheel.advanceTo(Math.floorDiv(clock.millis(), tickMillis), expired::add);
+        }
+        List<Job> materialize = new ArrayList<>();
+        for (Job job : expired) {
+            if (job.kind == JobKind.MATERIALIZE) {
+                materialize.add(job);
+            } else {
+                remind(job);
+            }
+        }
+        if (!materialize.isEmpty()) {
+            materialize(materialize);
+        }
+    }
+    
+    // All instances due in this tick share one reserved id range and one batch notification
+    private void materialize(List<Job> jobs) {
+        IntFunction<String> ids = tms.reserveTaskIds(jobs.size());
+        List<Task> created = new ArrayList<>(jobs.size());
+        Map<Project, List<TaskItem>> byProject = new HashMap<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            Job job = jobs.get(i);
+            LocalDate due = job.date();
+            Task instance = job.task.instantiate(ids.apply(i), due.toString());
+            byProject.computeIfAbsent(job.project, k -> new ArrayList<>()).add(new TaskItem(instance));
+            created.add(instance);
+            synchronized (this) {
+                // Skip if the template was unscheduled or rescheduled while this tick ran
+                TimingWheel.Timer<Job> pending = templates.get(job.task);
+                if (pending != null && pending.getPayload() == job) {
+                    scheduleMaterialize(new Job(JobKind.MATERIALIZE, job.task, job.project, job.rule,
+                                                job.anchor, job.occurrence + 1));
+                }
+                schedule(due.atStartOfDay(clock.getZone()).toInstant(),
+                         new Job(JobKind.DUE, instance, job.project, job.rule, job.anchor, job.occurrence));
+                schedule(due.plusDays(1).atStartOfDay(clock.getZone()).toInstant(),
+                         new Job(JobKind.OVERDUE, instance, job.project, job.rule, job.anchor, job.occurrence));
+            }
+        }
+        byProject.forEach(Project::addAll);
+        tms.notifyObserversOfBatch(created);
+    }
+    
+    private void remind(Job job) {
+        // Nothing to remind about once the task is done or gone
+        if (job.task.getTaskState() == CompletedState.INSTANCE || tms.findTaskById(job.task.getId()) != job.task) {
+            return;
+        }
+        tms.notifyReminder(job.task, job.kind == JobKind.DUE ? ReminderType.DUE : ReminderType.OVERDUE);
+    }
+    
+    private void scheduleMaterialize(Job job) {
+        Instant at = job.date().atStartOfDay(clock.getZone()).toInstant().minus(leadTime);
+        templates.put(job.task, schedule(at, job));
+    }
+    
+    // Rounded up to a tick boundary so nothing runs early
+    private TimingWheel.Timer<Job> schedule(Instant at, Job job) {
+        return wheel.schedule(Math.floorDiv(at.toEpochMilli() + tickMillis - 1, tickMillis), job);
+    }
+}
+
+// Log-linear latency histogram in the style of HdrHistogram: values below 2^bits are
+// counted exactly, larger values in buckets of relative width 2^(1-bits). Recording is
+// a few bit operations and one atomic increment, with no allocation.
+class LatencyHistogram {
+    private final int subBucketBits;
+    private final int subBucketCount;
+    private final int halfCount;
+    private final AtomicLongArray counts;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    // 5 bits keeps every percentile within about 3% of the recorded value
+    public LatencyHistogram(int subBucketBits) {
+        this.subBucketBits = subBucketBits;
+        this.subBucketCount = 1 << subBucketBits;
+        this.halfCount = subBucketCount / 2;
+        this.counts = new AtomicLongArray(subBucketCount + (63 - subBucketBits) * halfCount);
+    }
+    
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        total.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+    
+    private int indexOf(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - subBucketBits;
+        return subBucketCount + (shift - 1) * halfCount + (int) (value >>> shift) - halfCount;
+    }
+    
+    // Largest value that falls into the same bucket as index
+    private long highestValueAt(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = (index - subBucketCount) / halfCount + 1;
+        long subBucket = (index - subBucketCount) % halfCount + halfCount;
+        return ((subBucket + 1) << shift) - 1;
+    }
+    
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+    
+    public long getTotal() {
+        return total.get();
+    }
+    
+    public long getMax() {
+        return max.get();
+    }
+    
+    // e.g. getPercentile(99.9); 0 when nothing has been recorded
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
+
+enum TaskOperation {
+    CREATE_TASK("createTask"),
+    ASSIGN_TASK("assignTask"),
+    MOVE_TASK_TO_NEXT_STATE("moveTaskToNextState"),
+    MOVE_TASK_TO_STATE("moveTaskToState"),
+    FIND_TASK_BY_ID("findTaskById"),
+    COMMIT_TRANSACTION("commitTransaction");
+    
+    private final String metricName;
+    
+    TaskOperation(String metricName) {
+        this.metricName = metricName;
+    }
+    
+    public String getMetricName() {
+        return metricName;
+    }
+}
+
+// Latency, transition and observer dispatch metrics for one TaskManagementSystem.
+// Nothing is measured until TaskManagementSystem.enableMetrics is called; after that,
+// recording only touches preallocated histograms and counters. Readable as text in the
+// Prometheus exposition format, over HTTP, or as attributes of a JMX MBean.
+class TaskMetrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+    
+    private final LatencyHistogram[] operations = new LatencyHistogram[TaskOperation.values().length];
+    private final Map<TaskState, AtomicLong> transitions = new ConcurrentHashMap<>();
+    // Keyed by identity so observers with their own equals are still told apart
+    private final Map<TaskObserver, LatencyHistogram> dispatch = Collections.synchronizedMap(new IdentityHashMap<>());
+    private volatile ObjectName registeredName;
+    
+    public TaskMetrics() {
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = new LatencyHistogram(5);
+        }
+    }
+    
+    public void recordOperation(TaskOperation operation, long startNanos) {
+        operations[operation.ordinal()].record(System.nanoTime() - startNanos);
+    }
+    
+    public void recordTransition(TaskState to) {
+        AtomicLong counter = transitions.get(to);
+        if (counter == null) {
+            counter = transitions.computeIfAbsent(to, k -> new AtomicLong());
+        }
+        counter.incrementAndGet();
+    }
+    
+    public void recordDispatch(TaskObserver observer, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        LatencyHistogram histogram = dispatch.get(observer);
+        if (histogram == null) {
+            synchronized (dispatch) {
+                // Fewer buckets than the operation histograms: there may be thousands of observers
+                histogram = dispatch.computeIfAbsent(observer, k -> new LatencyHistogram(3));
+            }
+        }
+        histogram.record(elapsed);
+    }
+    
+    public LatencyHistogram getOperationLatency(TaskOperation operation) {
+        return operations[operation.ordinal()];
+    }
+    
+    public long getTransitionCount(TaskState to) {
+        AtomicLong counter = transitions.get(to);
+        return counter == null ? 0 : counter.get();
+    }
+    
+    public LatencyHistogram getDispatchLatency(TaskObserver observer) {
+        return dispatch.get(observer);
+    }
+    
+    // Flat name -> value view shared by the text format and the MBean
+    public Map<String, Number> collect() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (TaskOperation operation : TaskOperation.values()) {
+            addHistogram(values, "operation." + operation.getMetricName(), getOperationLatency(operation));
+        }
+        transitions.forEach((state, counter) -> values.put("transitions." + state.getDescription(), counter.get()));
+        for (Map.Entry<TaskObserver, LatencyHistogram> entry : dispatchEntries()) {
+            addHistogram(values, "dispatch." + describe(entry.getKey()), entry.getValue());
+        }
+        return values;
+    }
+    
+    private static void addHistogram(Map<String, Number> values, String prefix, LatencyHistogram histogram) {
+        values.put(prefix + ".count", histogram.getCount());
+        values.put(prefix + ".totalNanos", histogram.getTotal());
+        values.put(prefix + ".maxNanos", histogram.getMax());
+        for (int i = 0; i < QUANTILES.length; i++) {
+            values.put(prefix + "." + QUANTILE_NAMES[i] + "Nanos", histogram.getPercentile(QUANTILES[i] * 100));
+        }
+    }
+    
+    private List<Map.Entry<TaskObserver, LatencyHistogram>> dispatchEntries() {
+        synchronized (dispatch) {
+            return new ArrayList<>(dispatch.entrySet());
+        }
+    }
+    
+    private static String describe(TaskObserver observer) {
+        if (observer instanceof TeamMember) {
+            return "member:" + ((TeamMember) observer).getName();
+        }
+        return observer.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(observer));
+    }
+    
+    // Prometheus text exposition format, one summary per histogram
+    public void writeText(Writer out) throws IOException {
+        out.write("# TYPE tms_operation_latency_nanos summary\n");
+        for (TaskOperation operation : TaskOperation.values()) {
+            writeSummary(out, "tms_operation_latency_nanos", "operation", operation.getMetricName(),
+                         getOperationLatency(operation));
+        }
+        out.write("# TYPE tms_state_transitions_total counter\n");
+        for (Map.Entry<TaskState, AtomicLong> entry : transitions.entrySet()) {
+            out.write("tms_state_transitions_total{state=\"" + escapeLabel(entry.getKey().getDescription()) +
+                      "\"} " + entry.getValue().get() + "\n");
+        }
+        out.write("# TYPE tms_observer_dispatch_nanos summary\n");
+        for (Map.Entry<TaskObserver, LatencyHistogram> entry : dispatchEntries()) {
+            writeSummary(out, "tms_observer_dispatch_nanos", "observer", describe(entry.getKey()), entry.getValue());
+        }
+        out.flush();
+    }
+    
+    private static void writeSummary(Writer out, String metric, String label, String value,
+                                     LatencyHistogram histogram) throws IOException {
+        String labels = label + "=\"" + escapeLabel(value) + "\"";
+        for (double quantile : QUANTILES) {
+            out.write(metric + "{" + labels + ",quantile=\"" + quantile + "\"} " +
+                      histogram.getPercentile(quantile * 100) + "\n");
+        }
+        out.write(metric + "_sum{" + labels + "} " + histogram.getTotal() + "\n");
+        out.write(metric + "_count{" + labels + "} " + histogram.getCount() + "\n");
+    }
+    
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+    
+    // Serves writeText at http://host:port/metrics until the returned server is stopped
+    public HttpServer startScrapeEndpoint(InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> {
+            try {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8);
+                writeText(writer);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.size());
+                body.writeTo(exchange.getResponseBody());
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+    
+    // Registers with the platform MBean server, e.g. as "TaskManager:type=TaskMetrics"
+    public void registerMBean(String objectName) throws JMException {
+        ObjectName name = new ObjectName(objectName);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new TaskMetricsMBean(this), name);
+        registeredName = name;
+    }
+    
+    public void unregisterMBean() throws JMException {
+        ObjectName name = registeredName;
+        if (name != null) {
+            registeredName = null;
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+}
+
+// Read-only JMX view of TaskMetrics. Dynamic, because the attributes depend on which
+// states and observers have been seen; each one is an entry of TaskMetrics.collect.
+class TaskMetricsMBean implements DynamicMBean {
+    private final TaskMetrics metrics;
+    
+    TaskMetricsMBean(TaskMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = metrics.collect().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+    
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = metrics.collect();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Number value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+    
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("TaskMetrics attributes are read-only: " + attribute.getName());
+    }
+    
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+    
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+    
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Number> values = metrics.collect();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (String name : values.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+        }
+        return new MBeanInfo(TaskMetrics.class.getName(), "Task management metrics", attributes, null, null, null);
+    }
+}
+
+// Case-insensitive name index with prefix search. Keys are case-folded names. Exact
+// lookups go through a hash map, prefix lookups walk only the matching range of a
+// skip list. Both maps share the same immutable value lists; writes are serialized,
+// reads never lock. Values with the same name keep the order they were added in.
+class NameIndex<T> {
+    private final Map<String, List<T>> exact = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, List<T>> sorted = new ConcurrentSkipListMap<>();
+    
+    static String fold(String name) {
+        return name.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+    
+    public synchronized void add(String name, T value) {
+        String key = fold(name);
+        List<T> current = exact.get(key);
+        List<T> updated = new ArrayList<>(current == null ? 1 : current.size() + 1);
+        if (current != null) {
+            updated.addAll(current);
+        }
+        updated.add(value);
+        put(key, Collections.unmodifiableList(updated));
+    }
+    
+    public synchronized void remove(String name, T value) {
+        String key = fold(name);
+        List<T> current = exact.get(key);
+        if (current == null) {
+            return;
+        }
+        List<T> updated = new ArrayList<>(current);
+        updated.removeIf(existing -> existing == value);
+        put(key, updated.isEmpty() ? null : Collections.unmodifiableList(updated));
+    }
+    
+    public synchronized void rename(String oldName, String newName, T value) {
+        remove(oldName, value);
+        add(newName, value);
+    }
+    
+    private void put(String key, List<T> values) {
+        if (values == null) {
+            exact.remove(key);
+            sorted.remove(key);
+        } else {
+            exact.put(key, values);
+            sorted.put(key, values);
+        }
+    }
+    
+    // First value added under this name, ignoring case
+    public T find(String name) {
+        List<T> values = exact.get(fold(name));
+        return values == null ? null : values.get(0);
+    }
+    
+    // Values whose name starts with the prefix, ignoring case, in name order
+    public List<T> findByPrefix(String prefix, int limit) {
+        String from = fold(prefix);
+        List<T> matches = new ArrayList<>();
+        for (Map.Entry<String, List<T>> entry : sorted.tailMap(from).entrySet()) {
+            if (!entry.getKey().startsWith(from)) {
+                break;
+            }
+            for (T value : entry.getValue()) {
+                if (matches.size() == limit) {
+                    return matches;
+                }
+                matches.add(value);
+            }
+        }
+        return matches;
+    }
+}
+
+// Locks striped by project: a task is guarded by the stripe of the project it is in, so
+// changes to tasks in different projects rarely wait for each other. Several stripes are
+// always taken in ascending order, which rules out deadlock between transactions.
+final class ProjectLockStripes {
+    private final ReentrantLock[] locks;
+    private final int mask;
+    
+    // stripes must be a power of two
+    ProjectLockStripes(int stripes) {
+        locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = stripes - 1;
+    }
+    
+    // A task outside any project is guarded by a stripe picked by the task itself
+    int stripeOf(Project project, Task task) {
+        int hash = System.identityHashCode(project != null ? project : task);
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+    
+    void lock(int stripe) {
+        locks[stripe].lock();
+    }
+    
+    void unlock(int stripe) {
+        locks[stripe].unlock();
+    }
+    
+    // Sorts the first 'count' stripes and drops duplicates before locking them in order;
+    // returns how many distinct stripes are held
+    int lockAll(int[] stripes, int count) {
+        Arrays.sort(stripes, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || stripes[distinct - 1] != stripes[i]) {
+                stripes[distinct++] = stripes[i];
+            }
+        }
+        for (int i = 0; i < distinct; i++) {
+            locks[stripes[i]].lock();
+        }
+        return distinct;
+    }
+    
+    void unlockAll(int[] stripes, int distinct) {
+        for (int i = distinct - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+}
+
+// Changes to many tasks that are applied together or not at all. The version of each task
+// is remembered when the task is first added, and commit changes nothing if any of them
+// moved on since, or if a state change is not possible in the task's workflow. Atomic
+// with respect to other transactions and to changes made through TaskManagementSystem;
+// observers get one batch notification per commit. Create with newTransaction().
+final class TaskTransaction {
+    static final class Change {
+        final Task task;
+        long expectedVersion;
+        // null keeps the state unless advance is set, which takes the default edge
+        TaskState target;
+        boolean advance;
+        // null keeps the assignee
+        TeamMember assignee;
+        TaskState resolved;
+        TaskState previousState;
+        String previousAssignee;
+        
+        Change(Task task) {
+            this.task = task;
+            this.expectedVersion = task.getVersion();
+        }
+        
+        // Called with the task's stripe held; false if the task changed since it was read
+        // or the workflow cannot get it to the target
+        boolean validate() {
+            if (task.getVersion() != expectedVersion) {
+                return false;
+            }
+            TaskState current = task.getTaskState();
+            TaskWorkflow workflow = task.getWorkflow();
+            if (advance) {
+                TaskState next = workflow.getNextState(current);
+                resolved = next != null ? next : current;
+            } else if (target != null && target != current) {
+                if (!workflow.canReach(current, target)) {
+                    return false;
+                }
+                resolved = target;
+            } else {
+                resolved = current;
+            }
+            return true;
+        }
+        
+        void apply() {
+            previousState = task.getTaskState();
+            previousAssignee = task.getAssignee();
+            if (resolved != previousState) {
+                task.setTaskState(resolved);
+            }
+            if (assignee != null) {
+                task.assignTo(assignee);
+            }
+        }
+        
+        boolean stateChanged() {
+            return resolved != previousState;
+        }
+    }
+    
+    private final TaskManagementSystem tms;
+    // In the order tasks were first added; applied, journaled and notified in that order
+    private final Map<Task, Change> changes = new LinkedHashMap<>();
+    private List<Task> conflicts = Collections.emptyList();
+    private boolean committed;
+    
+    TaskTransaction(TaskManagementSystem tms) {
+        this.tms = tms;
+    }
+    
+    // Moves the task to the target directly, along a skip or rollback edge, or through
+    // the default "next" edges
+    public TaskTransaction moveToState(Task task, TaskState target) {
+        Change change = change(task);
+        change.target = target;
+        change.advance = false;
+        return this;
+    }
+    
+    // One step along the default edge; a task in a final state stays there
+    public TaskTransaction moveToNextState(Task task) {
+        Change change = change(task);
+        change.target = null;
+        change.advance = true;
+        return this;
+    }
+    
+    public TaskTransaction assign(Task task, TeamMember member) {
+        change(task).assignee = member;
+        return this;
+    }
+    
+    // Checks the task against a version read earlier, e.g. when it was shown to the user,
+    // instead of the one it had when first added here
+    public TaskTransaction expectVersion(Task task, long version) {
+        change(task).expectedVersion = version;
+        return this;
+    }
+    
+    // Applies every change, or none if any task conflicts; see getConflicts
+    public boolean commit() {
+        if (committed) {
+            throw new IllegalStateException("Transaction already committed");
+        }
+        committed = true;
+        return tms.commit(this);
+    }
+    
+    // After a failed commit: the tasks that changed in the meantime or could not reach
+    // their target state. Retry with a new transaction built from fresh reads.
+    public List<Task> getConflicts() {
+        return conflicts;
+    }
+    
+    public int size() {
+        return changes.size();
+    }
+    
+    Collection<Change> getChanges() {
+        return changes.values();
+    }
+    
+    void rejected(List<Task> conflicts) {
+        this.conflicts = Collections.unmodifiableList(conflicts);
+    }
+    
+    private Change change(Task task) {
+        if (committed) {
+            throw new IllegalStateException("Transaction already committed");
+        }
+        return changes.computeIfAbsent(task, Change::new);
+    }
+}
+
+class TaskManagementSystem {
+    private final ObserverRegistry observers = new ObserverRegistry();
+    private volatile boolean broadcastToMembers;
+    // Readers get consistent snapshots of these without copying
+    private final SnapshotList<Project> projects = new SnapshotList<>();
+    private final SnapshotList<TeamMember> teamMembers = new SnapshotList<>();
+    private final SnapshotList<Task> templateTasks = new SnapshotList<>();
+    // Root projects and members by case-insensitive name, for lookups and autocomplete
+    private final NameIndex<Project> projectNames = new NameIndex<>();
+    private final NameIndex<TeamMember> memberNames = new NameIndex<>();
+    private final TaskIndex taskIndex = new TaskIndex();
+    // Members by open task count, for auto-assignment
+    private final WorkloadBalancer balancer = new WorkloadBalancer();
+    // Held while changing a task's state or assignee, by project; see TaskTransaction
+    private final ProjectLockStripes taskLocks = new ProjectLockStripes(256);
+    private volatile TaskIdGenerator idGenerator = TaskIdGenerator.shared();
+    // The store's journal and the change feed combined; null when neither is set
+    private volatile TaskJournal journal;
+    private TaskJournal storeJournal;
+    private TaskChangeFeed changeFeed;
+    // null while metrics are disabled, so the only cost then is one volatile read per call
+    private volatile TaskMetrics metrics;
+    // Completed tasks taken out of their projects; null unless enableCompactArchive was called
+    private volatile CompactTaskTable archive;
+    
+    public synchronized void setIdGenerator(TaskIdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+        for (TeamMember member : teamMembers.snapshot()) {
+            member.setIdGenerator(idGenerator);
+        }
+    }
+    
+    public void addObserver(TaskObserver observer) {
+        observers.addBroadcast(observer);
+    }
+    
+    public void removeObserver(TaskObserver observer) {
+        observers.unsubscribe(observer);
+    }
+    
+    public void subscribeToAssignee(String assignee, TaskObserver observer) {
+        observers.subscribeToAssignee(assignee, observer);
+    }
+    
+    public void subscribeToProject(Project project, TaskObserver observer) {
+        observers.subscribeToProject(project, observer);
+    }
+    
+    // Matches the state a task moves into, not the transition; see ObserverRegistry
+    public void subscribeToState(String stateDescription, TaskObserver observer) {
+        observers.subscribeToState(stateDescription, observer);
+    }
+    
+    // Opt-in to the old behaviour of notifying every member about every task; members
+    // already added switch between broadcast and their assignee subscription too
+    public synchronized void setBroadcastToMembers(boolean broadcastToMembers) {
+        if (this.broadcastToMembers == broadcastToMembers) {
+            return;
+        }
+        this.broadcastToMembers = broadcastToMembers;
+        for (TeamMember member : teamMembers.snapshot()) {
+            if (broadcastToMembers) {
+                observers.unsubscribeFromAssignee(member.getName(), member);
+                observers.addBroadcast(member);
+            } else {
+                observers.removeBroadcast(member);
+                observers.subscribeToAssignee(member.getName(), member);
+            }
+        }
+    }
+    
+    private volatile TaskEventBus eventBus;
+    
+    // Every mutation from here on is also written to the journal
+    public synchronized void setJournal(TaskJournal journal) {
+        this.storeJournal = journal;
+        updateJournal();
+    }
+    
+    // Every task change from here on is also published to the feed; null detaches it
+    public synchronized void setChangeFeed(TaskChangeFeed feed) {
+        if (feed != null) {
+            feed.bind(this);
+        }
+        this.changeFeed = feed;
+        updateJournal();
+    }
+    
+    public TaskChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+    
+    private void updateJournal() {
+        TaskJournal combined;
+        if (storeJournal == null || changeFeed == null) {
+            combined = storeJournal != null ? storeJournal : changeFeed;
+        } else {
+            combined = new JournalChain(storeJournal, changeFeed);
+        }
+        this.journal = combined;
+        taskIndex.setJournal(combined);
+    }
+    
+    // Switches notifications from the caller thread to batched delivery on the executor
+    public TaskEventBus enableEventBus(Executor executor, int capacity, int batchSize, BackpressurePolicy policy) {
+        eventBus = new TaskEventBus(executor, capacity, batchSize, policy, event -> deliver(event.getTask()));
+        return eventBus;
+    }
+    
+    // Events still buffered are delivered before this returns; later ones go out synchronously
+    public void disableEventBus() {
+        TaskEventBus bus = eventBus;
+        eventBus = null;
+        if (bus != null) {
+            bus.flush();
+        }
+    }
+    
+    // Starts recording operation latencies, state transitions and observer dispatch times
+    public synchronized TaskMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new TaskMetrics();
+            observers.setMetrics(metrics);
+        }
+        return metrics;
+    }
+    
+    public synchronized void disableMetrics() {
+        metrics = null;
+        observers.setMetrics(null);
+    }
+    
+    public TaskMetrics getMetrics() {
+        return metrics;
+    }
+    
+    // From now on archiveCompletedTasks moves finished tasks into the returned table. They
+    // keep counting in member workloads and findTaskById still finds them, as copies, but
+    // queries, observers and the change feed see only the tasks left in projects. TaskStore
+    // checkpoints include them; after a restart they are back in their projects until
+    // archived again.
+    public synchronized CompactTaskTable enableCompactArchive() {
+        if (archive == null) {
+            archive = new CompactTaskTable();
+        }
+        return archive;
+    }
+    
+    public CompactTaskTable getCompactArchive() {
+        return archive;
+    }
+    
+    // Moves every task in a final state of the archive's workflow out of its project;
+    // returns how many moved. An archived task is read-only: the Task object is dropped.
+    public int archiveCompletedTasks() {
+        CompactTaskTable archive = this.archive;
+        if (archive == null) {
+            return 0;
+        }
+        TaskWorkflow workflow = archive.getWorkflow();
+        List<TaskItem> candidates = new ArrayList<>();
+        ComponentWalk walk = new ComponentWalk(projects.snapshot());
+        for (TaskComponent component = walk.next(); component != null; component = walk.next()) {
+            if (component instanceof TaskItem) {
+                Task task = ((TaskItem) component).getTask();
+                if (task.getWorkflow() == workflow && workflow.getNextState(task.getTaskState()) == null) {
+                    candidates.add((TaskItem) component);
+                }
+            }
+        }
+        int archived = 0;
+        for (TaskItem item : candidates) {
+            Task task = item.getTask();
+            int stripe = lockTask(task);
+            try {
+                // Checked again under the stripe, which state changes through this system take.
+                // Detached first, so a task removed meanwhile is not archived.
+                Project parent = item.getParent();
+                if (parent == null || workflow.getNextState(task.getTaskState()) != null || !parent.detach(item)) {
+                    continue;
+                }
+                archive.add(task, parent);
+                archived++;
+            } finally {
+                taskLocks.unlock(stripe);
+            }
+        }
+        return archived;
+    }
+    
+    public TaskEventBus getEventBus() {
+        return eventBus;
+    }
+    
+    public void notifyObservers(Task task) {
+        TaskEventBus bus = eventBus;
+        if (bus != null) {
+            bus.publish(task);
+        } else {
+            deliver(task);
+        }
+    }
+    
+    // One synchronous notification for many tasks, used by bulk operations
+    public void notifyObserversOfBatch(List<Task> tasks) {
+        observers.dispatchBatch(tasks, task -> taskIndex.findParent(task.getId()));
+    }
+    
+    private void deliver(Task task) {
+        observers.dispatch(task, taskIndex.findParent(task.getId()));
+    }
+    
+    // Delivered synchronously, even when the event bus is enabled
+    public void notifyReminder(Task task, ReminderType type) {
+        observers.dispatchReminder(task, taskIndex.findParent(task.getId()), type);
+    }
+    
+    public Project createProject(String name) {
+        Project project = new Project(name);
+        addProject(project);
+        return project;
+    }
+    
+    // Attaches a root project built elsewhere, with everything already inside it
+    public void addProject(Project project) {
+        taskIndex.register(project, null);
+        projects.add(project);
+        projectNames.add(project.getName(), project);
+    }
+    
+    // Detaches a root project and everything in it
+    public synchronized boolean removeProject(Project project) {
+        if (!projects.remove(project)) {
+            return false;
+        }
+        projectNames.remove(project.getName(), project);
+        taskIndex.removed(null, project);
+        return true;
+    }
+    
+    public synchronized void renameProject(Project project, String name) {
+        String oldName = project.getName();
+        project.setName(name);
+        if (project.getParent() == null && projects.snapshot().contains(project)) {
+            projectNames.rename(oldName, name, project);
+        }
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.projectRenamed(project);
+        }
+    }
+    
+    public String nextTaskId() {
+        return idGenerator.nextId();
+    }
+    
+    public IntFunction<String> reserveTaskIds(int count) {
+        return idGenerator.reserveIds(count);
+    }
+    
+    public Task createTask(String title, String description, String dueDate) {
+        TaskMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+        String id = idGenerator.nextId();
+        Task task = new Task(id, title, description, dueDate);
+        if (metrics != null) {
+            metrics.recordOperation(TaskOperation.CREATE_TASK, start);
+        }
+        return task;
+    }
+    
+    public void assignTask(Task task, TeamMember member) {
+        TaskMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+        String previous;
+        int stripe = lockTask(task);
+        try {
+            previous = task.getAssignee();
+            member.assignTask(task);
+        } finally {
+            taskLocks.unlock(stripe);
+        }
+        taskChanged(task);
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.taskAssigned(task, previous);
+        }
+        notifyObservers(task);
+        if (metrics != null) {
+            metrics.recordOperation(TaskOperation.ASSIGN_TASK, start);
+        }
+    }
+    
+    // Tasks in this system's projects currently assigned to the member, from the index
+    public List<Task> getTasksAssignedTo(TeamMember member) {
+        List<Task> tasks = new ArrayList<>();
+        for (Task task : findTasks(member.getName(), null, null, null)) {
+            if (task.getAssigneeMember() == member) {
+                tasks.add(task);
+            }
+        }
+        return tasks;
+    }
+    
+    // The member with the fewest open tasks, or null if there are no members
+    public TeamMember findLeastLoadedMember() {
+        return balancer.leastLoaded();
+    }
+    
+    // Assigns the task to the least loaded member in O(log members); null if there are none
+    public TeamMember autoAssign(Task task) {
+        TeamMember member = balancer.leastLoaded();
+        if (member != null) {
+            assignTask(task, member);
+        }
+        return member;
+    }
+    
+    // Same as autoAssign for each task, rebalancing after every one, but without a console
+    // message per task and with one batch notification at the end
+    public void autoAssignAll(List<Task> tasks) {
+        TaskMetrics metrics = this.metrics;
+        TaskJournal journal = this.journal;
+        for (Task task : tasks) {
+            long start = metrics != null ? System.nanoTime() : 0;
+            TeamMember member = balancer.leastLoaded();
+            if (member == null) {
+                return;
+            }
+            String previous;
+            int stripe = lockTask(task);
+            try {
+                previous = task.getAssignee();
+                task.assignTo(member);
+            } finally {
+                taskLocks.unlock(stripe);
+            }
+            taskChanged(task);
+            if (journal != null) {
+                journal.taskAssigned(task, previous);
+            }
+            if (metrics != null) {
+                metrics.recordOperation(TaskOperation.ASSIGN_TASK, start);
+            }
+        }
+        notifyObserversOfBatch(tasks);
+    }
+    
+    public void moveTaskToNextState(Task task) {
+        TaskMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+        TaskState before;
+        int stripe = lockTask(task);
+        try {
+            before = task.moveToNextState();
+        } finally {
+            taskLocks.unlock(stripe);
+        }
+        taskChanged(task);
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.taskStateChanged(task, before);
+        }
+        notifyObservers(task);
+        if (metrics != null) {
+            TaskState after = task.getTaskState();
+            if (after != before) {
+                metrics.recordTransition(after);
+            }
+            metrics.recordOperation(TaskOperation.MOVE_TASK_TO_NEXT_STATE, start);
+        }
+    }
+    
+    public boolean moveTaskToState(Task task, TaskState target) {
+        TaskMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+        TaskState previous;
+        int stripe = lockTask(task);
+        try {
+            previous = task.transitionFrom(target);
+        } finally {
+            taskLocks.unlock(stripe);
+        }
+        if (previous == null) {
+            return false;
+        }
+        taskChanged(task);
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.taskStateChanged(task, previous);
+        }
+        notifyObservers(task);
+        if (metrics != null) {
+            metrics.recordTransition(target);
+            metrics.recordOperation(TaskOperation.MOVE_TASK_TO_STATE, start);
+        }
+        return true;
+    }
+    
+    public void displayAllProjects() {
+        System.out.println("\n===== All Projects =====");
+        TreeRenderer.displayOnConsole(projects.snapshot(), 0);
+    }
+    
+    // Streams the whole tree in the given format; see TreeRenderer for paging and depth limits
+    public long renderAllProjects(TreeRenderer renderer) throws IOException {
+        return renderer.render(projects.snapshot(), 0);
+    }
+    
+    public List<Project> getProjects() {
+        return projects.snapshot();
+    }
+    
+    public synchronized void addTeamMember(TeamMember member) {
+        teamMembers.add(member);
+        memberNames.add(member.getName(), member);
+        member.getWorkload().setBalancer(balancer);
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.memberAdded(member);
+        }
+        member.setIdGenerator(idGenerator);
+        if (broadcastToMembers) {
+            addObserver(member);
+        } else {
+            subscribeToAssignee(member.getName(), member);
+        }
+    }
+    
+    public List<TeamMember> getTeamMembers() {
+        return teamMembers.snapshot();
+    }
+    
+    // The member's tasks keep the assignee name but no longer point at the member
+    public synchronized boolean removeTeamMember(TeamMember member) {
+        if (!teamMembers.remove(member)) {
+            return false;
+        }
+        memberNames.remove(member.getName(), member);
+        member.getWorkload().setBalancer(null);
+        observers.unsubscribe(member);
+        for (Task task : getTasksAssignedTo(member)) {
+            task.setAssignee(member.getName());
+        }
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.memberRemoved(member);
+        }
+        return true;
+    }
+    
+    // Tasks assigned to the member, and the member's assignee subscription, move to the new name
+    public synchronized void renameTeamMember(TeamMember member, String name) {
+        String oldName = member.getName();
+        List<Task> tasks = getTasksAssignedTo(member);
+        member.setName(name);
+        memberNames.rename(oldName, name, member);
+        if (!broadcastToMembers) {
+            observers.unsubscribeFromAssignee(oldName, member);
+            subscribeToAssignee(name, member);
+        }
+        for (Task task : tasks) {
+            task.setAssignee(member);
+            taskChanged(task);
+        }
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.memberRenamed(oldName, member);
+        }
+    }
+    
+    public void addTemplateTask(Task template) {
+        templateTasks.add(template);
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.templateAdded(template);
+        }
+    }
+    
+    public List<Task> getTemplateTasks() {
+        return templateTasks.snapshot();
+    }
+    
+    // A new unassigned task with the template's text and a fresh id, added to the project
+    public Task cloneTemplate(Task template, Project project, String dueDate) {
+        Task task = template.instantiate(idGenerator.nextId(), dueDate);
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.taskCloned(template, task);
+        }
+        project.add(new TaskItem(task));
+        return task;
+    }
+    
+    // As cloneTemplate does for one clone: tells the journal that these instances of the
+    // template are about to be added on the calling thread
+    void clonesCreated(Task template, List<Task> clones) {
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            for (Task clone : clones) {
+                journal.taskCloned(template, clone);
+            }
+        }
+    }
+    
+    public Project findProjectByName(String name) {
+        return name == null ? null : projectNames.find(name);
+    }
+    
+    public TeamMember findTeamMemberByName(String name) {
+        return name == null ? null : memberNames.find(name);
+    }
+    
+    // Typeahead: root projects whose name starts with the prefix, ignoring case
+    public List<Project> findProjectsByPrefix(String prefix, int limit) {
+        return projectNames.findByPrefix(prefix, limit);
+    }
+    
+    public List<TeamMember> findTeamMembersByPrefix(String prefix, int limit) {
+        return memberNames.findByPrefix(prefix, limit);
+    }
+    
+    // Archived tasks come back as a new copy on every call
+    public Task findTaskById(String id) {
+        TaskMetrics metrics = this.metrics;
+        if (metrics == null) {
+            Task task = taskIndex.findTask(id);
+            return task != null ? task : findArchived(id);
+        }
+        long start = System.nanoTime();
+        Task task = taskIndex.findTask(id);
+        if (task == null) {
+            task = findArchived(id);
+        }
+        metrics.recordOperation(TaskOperation.FIND_TASK_BY_ID, start);
+        return task;
+    }
+    
+    // For an archived task, the project it was archived from
+    public Project findParentProject(String taskId) {
+        Project parent = taskIndex.findParent(taskId);
+        CompactTaskTable archive = this.archive;
+        if (parent != null || archive == null) {
+            return parent;
+        }
+        int handle = archive.find(taskId);
+        return handle < 0 ? null : archive.getProject(handle);
+    }
+    
+    private Task findArchived(String id) {
+        CompactTaskTable archive = this.archive;
+        if (archive == null) {
+            return null;
+        }
+        int handle = archive.find(id);
+        return handle < 0 ? null : archive.toTask(handle);
+    }
+    
+    TaskItem findTaskItem(String taskId) {
+        return taskIndex.findItem(taskId);
+    }
+    
+    // Moves a task between projects in one step, without scanning either project. Holds
+    // both projects' stripes, so the move cannot slip in under a running transaction.
+    public boolean moveTask(Task task, Project from, Project to) {
+        TaskItem item = taskIndex.findItem(task.getId());
+        if (item == null || item.getTask() != task) {
+            return false;
+        }
+        int[] stripes = {taskLocks.stripeOf(from, task), taskLocks.stripeOf(to, task)};
+        int held = taskLocks.lockAll(stripes, 2);
+        try {
+            return from.moveTo(item, to);
+        } finally {
+            taskLocks.unlockAll(stripes, held);
+        }
+    }
+    
+    public TaskTransaction newTransaction() {
+        return new TaskTransaction(this);
+    }
+    
+    // Locks the stripes of every task's project, validates every change, then applies,
+    // journals and reindexes them all before unlocking, so the journal and the indexes see
+    // a task's changes in the order they were applied. Waiting for the journal to be
+    // durable and the one batch notification happen after the locks are released.
+    boolean commit(TaskTransaction transaction) {
+        TaskMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+        List<TaskTransaction.Change> changes = new ArrayList<>(transaction.getChanges());
+        Project[] parents = new Project[changes.size()];
+        int[] stripes = new int[changes.size()];
+        List<Task> conflicts = null;
+        List<Task> changed = new ArrayList<>(changes.size());
+        TaskJournal journal = this.journal;
+        if (journal != null) {
+            journal.beginBatch();
+        }
+        try {
+            int held = lockStripes(changes, parents, stripes);
+            try {
+                for (TaskTransaction.Change change : changes) {
+                    if (!change.validate()) {
+                        if (conflicts == null) {
+                            conflicts = new ArrayList<>();
+                        }
+                        conflicts.add(change.task);
+                    }
+                }
+                if (conflicts == null) {
+                    for (TaskTransaction.Change change : changes) {
+                        change.apply();
+                    }
+                    recordCommit(changes, parents, changed, journal, metrics);
+                }
+            } finally {
+                taskLocks.unlockAll(stripes, held);
+            }
+        } finally {
+            if (journal != null) {
+                journal.endBatch();
+            }
+        }
+        if (conflicts != null) {
+            transaction.rejected(conflicts);
+            return false;
+        }
+        if (!changed.isEmpty()) {
+            notifyObserversOfBatch(changed);
+        }
+        if (metrics != null) {
+            metrics.recordOperation(TaskOperation.COMMIT_TRANSACTION, start);
+        }
+        return true;
+    }
+    
+    // Called with the stripes held: journals the applied changes, reindexes the tasks that
+    // changed, collected into 'changed', and invalidates their projects' stats
+    private void recordCommit(List<TaskTransaction.Change> changes, Project[] parents, List<Task> changed,
+                              TaskJournal journal, TaskMetrics metrics) {
+        Set<Project> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < changes.size(); i++) {
+            TaskTransaction.Change change = changes.get(i);
+            if (!change.stateChanged() && change.assignee == null) {
+                continue;
+            }
+            changed.add(change.task);
+            if (parents[i] != null) {
+                touched.add(parents[i]);
+            }
+            if (journal != null) {
+                if (change.stateChanged()) {
+                    journal.taskStateChanged(change.task, change.previousState);
+                }
+                if (change.assignee != null) {
+                    journal.taskAssigned(change.task, change.previousAssignee);
+                }
+            }
+            if (metrics != null && change.stateChanged()) {
+                metrics.recordTransition(change.resolved);
+            }
+        }
+        taskIndex.getSecondary().updateAll(changed);
+        for (Project project : touched) {
+            project.invalidateStats();
+        }
+    }
+    
+    // Takes the stripe of each task's current project, starting over if one of the tasks
+    // moved before its stripe was held; fills in the parents and returns the stripes held
+    private int lockStripes(List<TaskTransaction.Change> changes, Project[] parents, int[] stripes) {
+        while (true) {
+            for (int i = 0; i < parents.length; i++) {
+                Task task = changes.get(i).task;
+                parents[i] = taskIndex.findParent(task.getId());
+                stripes[i] = taskLocks.stripeOf(parents[i], task);
+            }
+            int held = taskLocks.lockAll(stripes, parents.length);
+            boolean moved = false;
+            for (int i = 0; i < parents.length && !moved; i++) {
+                moved = taskIndex.findParent(changes.get(i).task.getId()) != parents[i];
+            }
+            if (!moved) {
+                return held;
+            }
+            taskLocks.unlockAll(stripes, held);
+        }
+    }
+    
+    // Same as lockStripes for a single task
+    private int lockTask(Task task) {
+        while (true) {
+            Project parent = taskIndex.findParent(task.getId());
+            int stripe = taskLocks.stripeOf(parent, task);
+            taskLocks.lock(stripe);
+            if (taskIndex.findParent(task.getId()) == parent) {
+                return stripe;
+            }
+            taskLocks.unlock(stripe);
+        }
+    }
+    
+    // e.g. findTasks("aryan", InProgressState.INSTANCE, "2025-06-02", "2025-06-08"); null means any
+    public List<Task> findTasks(String assignee, TaskState state, String dueFrom, String dueTo) {
+        return taskIndex.getSecondary().find(assignee, state, dueFrom, dueTo);
+    }
+    
+    // For callers that change a task's assignee or state directly, such as recovery
+    void reindexTask(Task task) {
+        taskChanged(task);
+    }
+    
+    private void taskChanged(Task task) {
+        taskIndex.getSecondary().update(task);
+        Project parent = taskIndex.findParent(task.getId());
+        if (parent != null) {
+            parent.invalidateStats();
+        }
+    }
+    
+    // Roll-up across every project; unchanged subtrees come from their cached stats
+    public TaskStats aggregateAll(LocalDate asOf) {
+        TaskStats stats = new TaskStats();
+        for (Project project : projects.snapshot()) {
+            stats.addAll(project.aggregate(asOf));
+        }
+        return stats;
+    }
+    
+    // Full tree scan, kept for comparison against the index in TaskLookupBenchmark
+    Task scanForTaskById(String id) {
+        ComponentWalk walk = new ComponentWalk(projects.snapshot());
+        for (TaskComponent component = walk.next(); component != null; component = walk.next()) {
+            if (component instanceof TaskItem) {
+                Task task = ((TaskItem) component).getTask();
+                if (task.getId().equals(id)) {
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+}
+public class TaskManagementDemo {
+    private static TaskManagementSystem tms = new TaskManagementSystem();
+    private static Scanner scanner = new Scanner(System.in);
+    private static TaskStore store;
+    private static TaskChangeFeed changeFeed;
+    private static HttpServer metricsServer;
+    // Creates each week's instance of recurring templates a day ahead
+    private static RecurrenceScheduler recurrence =
+        new RecurrenceScheduler(tms, Clock.systemDefaultZone(), Duration.ofMinutes(1), Duration.ofDays(1));
+    
+    // Pass a data directory as the first argument to keep tasks between runs; task changes
+    // are also published to a change feed in its "feed" subdirectory.
+    // With -Dtms.metrics.port=9404, metrics are served at /metrics and registered over JMX.
+    // With -Dtms.compactArchive=true, completed tasks move to the compact archive every minute.
+    public static void main(String[] args) throws IOException, JMException {
+        if (args.length > 0) {
+            store = TaskStore.open(Paths.get(args[0]), true);
+            store.recover(tms);
+            store.startPeriodicSnapshots(tms, 5, TimeUnit.MINUTES);
+            changeFeed = TaskChangeFeed.open(Paths.get(args[0], "feed"), false);
+            tms.setChangeFeed(changeFeed);
+        }
+        String metricsPort = System.getProperty("tms.metrics.port");
+        if (metricsPort != null) {
+            TaskMetrics metrics = tms.enableMetrics();
+            metrics.registerMBean("TaskManager:type=TaskMetrics");
+            metricsServer = metrics.startScrapeEndpoint(new InetSocketAddress(Integer.parseInt(metricsPort)));
+        }
+        if (tms.getTeamMembers().isEmpty()) {
+            initializeSystem();
+        }
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "recurrence-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        recurrence.start(ticker);
+        if (Boolean.getBoolean("tms.compactArchive")) {
+            tms.enableCompactArchive();
+            ticker.scheduleWithFixedDelay(tms::archiveCompletedTasks, 1, 1, TimeUnit.MINUTES);
+        }
+        
+        boolean exit = false;
+        while (!exit) {
+            exit = handleMainMenu();
+        }
+        
+        if (store != null) {
+            store.snapshot(tms);
+            store.close();
+            changeFeed.close();
+        }
+        recurrence.close();
+        ticker.shutdown();
+        if (metricsServer != null) {
+            metricsServer.stop(0);
         }
-        
         System.out.println("Exiting Task Management System. Goodbye!");
         scanner.close();
     }
@@ -406,6 +7729,7 @@ public class TaskManagementDemo {
             "Every Friday"
         );
         tms.addTemplateTask(weeklyReportTemplate);
+        recurrence.scheduleTemplate(weeklyReportTemplate, webDev);
         
         System.out.println("Task Management System initialized with sample data.");
     }
@@ -683,8 +8007,6 @@ public class TaskManagementDemo {
         if (templateIndex == -1) return;
         
         Task templateTask = templates.get(templateIndex);
-        Task clonedTask = (Task) templateTask.clone();
-        clonedTask.setAssignee(null);  // Clear assignee
         
         String dueDate = getStringInput("Enter due date for this instance (e.g., YYYY-MM-DD): ");
         
@@ -704,7 +8026,7 @@ public class TaskManagementDemo {
         if (projectIndex == -1) return;
         
         Project project = projects.get(projectIndex);
-        project.add(new TaskItem(clonedTask));
+        tms.cloneTemplate(templateTask, project, dueDate);
         
         System.out.println("Task cloned from template and added to project '" + project.getName() + "'");
         pressEnterToContinue();
@@ -806,7 +8128,8 @@ public class TaskManagementDemo {
             System.out.println("No team members found.");
         } else {
             for (int i = 0; i < members.size(); i++) {
-                System.out.println((i + 1) + ". " + members.get(i).getName());
+                TeamMember member = members.get(i);
+                System.out.println((i + 1) + ". " + member.getName() + " (" + member.getWorkload().getOpenCount() + " open)");
             }
         }
     }
@@ -830,7 +8153,12 @@ public class TaskManagementDemo {
         TeamMember member = members.get(memberIndex);
         
         System.out.println("\n=== Tasks assigned to " + member.getName() + " ===");
-        List<Task> tasks = member.getAssignedTasks();
+        MemberWorkload workload = member.getWorkload();
+        Map<DueWindow, Integer> windows = workload.getOpenByDueWindow(LocalDate.now());
+        System.out.println("Open: " + workload.getOpenCount() + " (overdue " + windows.get(DueWindow.OVERDUE) +
+                           ", due this week " + (windows.get(DueWindow.DUE_TODAY) + windows.get(DueWindow.DUE_THIS_WEEK)) +
+                           "), by state: " + workload.getCountsByState());
+        List<Task> tasks = tms.getTasksAssignedTo(member);
         if (tasks.isEmpty()) {
             System.out.println("No tasks assigned.");
         } else {
@@ -0,0 +1,292 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Recovery harness for TaskStore: writes a log, damages its tail the way a crash can, and
+// checks that recover() keeps every acknowledged change and nothing else. Then recovers
+// from a checkpoint plus the log written after it.
+// Usage: java TaskRecoveryTest
+public class TaskRecoveryTest {
+
+    public static void main(String[] args) throws Exception {
+        tornTail("zero-filled tail", new byte[16]);
+        tornTail("negative length", frameHeader(-5, 0));
+        tornTail("length past the end", frameHeader(1 << 30, 0));
+        tornTail("short header", new byte[] {0, 0, 0});
+        tornTail("payload cut short", cut(frame(new byte[] {2, 0, 0, 0, 0}), 7));
+        tornTail("bad CRC", frameHeader(4, 12345), new byte[] {1, 2, 3, 4});
+        // Passes the CRC, but the record stops halfway through its fields
+        tornTail("undecodable last record", frame(new byte[] {2, 0, 0, 0, 0}));
+        System.out.println("OK: torn tails");
+        checkpoint();
+        System.out.println("OK: checkpoint");
+        archive();
+        System.out.println("OK: compact archive");
+        writerInterrupted();
+        System.out.println("OK: writer interrupted");
+    }
+
+    // Once the log writer is gone, changes fail instead of waiting forever to become durable
+    private static void writerInterrupted() throws Exception {
+        Path directory = Files.createTempDirectory("task-recovery");
+        try {
+            TaskManagementSystem tms = new TaskManagementSystem();
+            TaskStore store = TaskStore.open(directory, true);
+            store.recover(tms);
+            Project project = tms.createProject("Interrupted");
+            Thread writer = null;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("task-store-writer")) {
+                    writer = thread;
+                }
+            }
+            check(writer != null, "writer interrupted: no writer thread");
+            writer.interrupt();
+            writer.join(5000);
+            check(!writer.isAlive(), "writer interrupted: writer still running");
+
+            Thread change = new Thread(() -> {
+                try {
+                    project.add(new TaskItem(tms.createTask("Lost", "Recovery", "2025-01-01")));
+                    throw new AssertionError("writer interrupted: change was accepted");
+                } catch (UncheckedIOException expected) {
+                    // The store reports the failure
+                }
+            });
+            change.start();
+            change.join(5000);
+            check(!change.isAlive(), "writer interrupted: change is still waiting");
+            try {
+                store.close();
+                throw new AssertionError("writer interrupted: close did not report the failure");
+            } catch (InterruptedIOException expected) {
+                // The writer's failure
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // Completed tasks moved to the compact archive are still found by id, as copies, and a
+    // checkpoint taken while they are there brings them back into their projects
+    private static void archive() throws Exception {
+        Path directory = Files.createTempDirectory("task-recovery");
+        try {
+            TaskManagementSystem tms = new TaskManagementSystem();
+            TaskStore store = TaskStore.open(directory, true);
+            store.recover(tms);
+            Project project = tms.createProject("Archived");
+            for (int i = 0; i < 10; i++) {
+                Task task = tms.createTask("Task " + i, "Archive", "2025-04-01");
+                project.add(new TaskItem(task));
+                if (i % 2 == 0) {
+                    tms.newTransaction().moveToState(task, CompletedState.INSTANCE).commit();
+                }
+            }
+            tms.enableCompactArchive();
+            check(tms.archiveCompletedTasks() == 5 && taskCount(tms) == 5, "archive: live tasks after archiving");
+            String id = tms.getCompactArchive().getId(0);
+            Task copy = tms.findTaskById(id);
+            check(copy != null && copy != tms.findTaskById(id) && copy.getTaskState() == CompletedState.INSTANCE,
+                  "archive: lookup by id");
+            check(tms.findParentProject(id) == project, "archive: parent project");
+            store.snapshot(tms);
+            store.close();
+
+            TaskManagementSystem recovered = new TaskManagementSystem();
+            store = TaskStore.open(directory, true);
+            store.recover(recovered);
+            store.close();
+            check(taskCount(recovered) == 10, "archive: recovered " + taskCount(recovered) + " tasks, expected 10");
+            check(recovered.findParentProject(id).getName().equals("Archived"), "archive: recovered parent");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // Writes a system with members, templates and nested projects, checkpoints it, changes it
+    // further and recovers. A segment the checkpoint covers is planted with a corrupt record,
+    // as if a crash had come before it was deleted, so replaying it would fail the recovery.
+    private static void checkpoint() throws Exception {
+        Path directory = Files.createTempDirectory("task-recovery");
+        try {
+            TaskManagementSystem tms = new TaskManagementSystem();
+            TaskStore store = TaskStore.open(directory, true);
+            store.recover(tms);
+            TeamMember alice = new TeamMember("Alice");
+            tms.addTeamMember(alice);
+            tms.addTeamMember(new TeamMember("Bob"));
+            tms.addTemplateTask(alice.createTemplateTask("Weekly report", "Template", "Every Friday"));
+            Project root = tms.createProject("Root");
+            Project child = new Project("Child");
+            root.add(child);
+            for (int i = 0; i < 20; i++) {
+                Task task = tms.createTask("Task " + i, i % 2 == 0 ? null : "Description " + i, "2025-02-" + (10 + i));
+                (i % 3 == 0 ? root : child).add(new TaskItem(task));
+                if (i % 4 == 0) {
+                    tms.assignTask(task, alice);
+                }
+                if (i % 5 == 0) {
+                    tms.moveTaskToNextState(task);
+                }
+            }
+            store.snapshot(tms);
+            String firstAfterCheckpoint = segments(directory).get(0).getFileName().toString();
+            // Log records after the checkpoint refer to projects by the ids it stored
+            tms.renameProject(child, "Child renamed");
+            child.add(new TaskItem(tms.createTask("After checkpoint", "Recovery", "2025-03-01")));
+            tms.moveTaskToNextState(tms.findTaskById(tms.findTasks(null, null, null, null).get(0).getId()));
+            store.close();
+            Files.write(directory.resolve("wal-000000.log"), frame(new byte[] {2, 0, 0, 0, 0}));
+            Files.write(directory.resolve("wal-000000.log"), new byte[16], StandardOpenOption.APPEND);
+            check(!firstAfterCheckpoint.equals("wal-000000.log"), "checkpoint: planted segment is not older");
+
+            TaskManagementSystem recovered = new TaskManagementSystem();
+            store = TaskStore.open(directory, true);
+            store.recover(recovered);
+            store.close();
+            check(recovered.getTeamMembers().size() == 2, "checkpoint: members");
+            check(recovered.getTemplateTasks().size() == 1
+                  && recovered.getTemplateTasks().get(0).getTitle().equals("Weekly report"), "checkpoint: templates");
+            check(recovered.findProjectByName("Root") != null, "checkpoint: root project");
+            List<Task> tasks = tms.findTasks(null, null, null, null);
+            check(taskCount(recovered) == tasks.size(), "checkpoint: recovered " + taskCount(recovered)
+                  + " tasks, expected " + tasks.size());
+            for (Task expected : tasks) {
+                Task actual = recovered.findTaskById(expected.getId());
+                check(actual != null
+                      && expected.getTitle().equals(actual.getTitle())
+                      && same(expected.getDescription(), actual.getDescription())
+                      && same(expected.getDueDate(), actual.getDueDate())
+                      && same(expected.getAssignee(), actual.getAssignee())
+                      && expected.getTaskState() == actual.getTaskState(),
+                      "checkpoint: " + expected.getId() + " differs");
+                check(tms.findParentProject(expected.getId()).getName()
+                          .equals(recovered.findParentProject(expected.getId()).getName()),
+                      "checkpoint: " + expected.getId() + " is in the wrong project");
+            }
+            check(recovered.findTeamMemberByName("Alice").getWorkload().getTotalCount()
+                  == alice.getWorkload().getTotalCount(), "checkpoint: Alice's workload");
+            // Recovery loads every task rather than materializing them lazily: queries and
+            // roll-ups must see tasks whose ids nobody has asked for yet
+            check(recovered.findTasks("Alice", null, null, null).size() == tms.findTasks("Alice", null, null, null).size()
+                  && recovered.findTasks(null, InProgressState.INSTANCE, null, null).size()
+                     == tms.findTasks(null, InProgressState.INSTANCE, null, null).size(),
+                  "checkpoint: secondary index");
+            LocalDate asOf = LocalDate.of(2025, 2, 20);
+            check(recovered.findProjectByName("Root").aggregate(asOf).getOverdueCount()
+                  == root.aggregate(asOf).getOverdueCount(), "checkpoint: roll-up");
+
+            // The checkpoint file itself reads back on its own
+            ColumnarSnapshot snapshot = ColumnarSnapshot.open(directory.resolve("snapshot.col"));
+            check(snapshot.getTaskCount() == 20 && snapshot.getTemplateCount() == 1 && snapshot.getProjectCount() == 2,
+                  "checkpoint: snapshot counts");
+            check(snapshot.findTask(tasks.get(3).getId()).getTitle().equals(tasks.get(3).getTitle())
+                  && snapshot.findTask("missing") == null && snapshot.getMaterializedCount() == 1,
+                  "checkpoint: snapshot lookup");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // Writes three tasks, appends the damage to the last segment, and recovers twice: once
+    // over the damage and once more after a further change, so later segments still replay
+    private static void tornTail(String name, byte[]... damage) throws Exception {
+        Path directory = Files.createTempDirectory("task-recovery");
+        try {
+            TaskManagementSystem tms = new TaskManagementSystem();
+            TaskStore store = TaskStore.open(directory, true);
+            store.recover(tms);
+            Project project = tms.createProject("Recovered");
+            for (int i = 0; i < 3; i++) {
+                project.add(new TaskItem(tms.createTask("Task " + i, "Recovery", "2025-01-01")));
+            }
+            store.close();
+            Path last = segments(directory).get(segments(directory).size() - 1);
+            for (byte[] bytes : damage) {
+                Files.write(last, bytes, StandardOpenOption.APPEND);
+            }
+
+            TaskManagementSystem recovered = new TaskManagementSystem();
+            store = TaskStore.open(directory, true);
+            store.recover(recovered);
+            check(taskCount(recovered) == 3, name + ": recovered " + taskCount(recovered) + " tasks, expected 3");
+            recovered.getProjects().get(0).add(new TaskItem(recovered.createTask("After", "Recovery", "2025-01-02")));
+            store.close();
+
+            TaskManagementSystem again = new TaskManagementSystem();
+            store = TaskStore.open(directory, true);
+            store.recover(again);
+            check(taskCount(again) == 4, name + ": second recovery found " + taskCount(again) + " tasks, expected 4");
+            store.close();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static int taskCount(TaskManagementSystem tms) {
+        return tms.findTasks(null, null, null, null).size();
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static byte[] frame(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] frameHeader(int length, int crc) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(length);
+        out.writeInt(crc);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] cut(byte[] bytes, int length) {
+        byte[] prefix = new byte[length];
+        System.arraycopy(bytes, 0, prefix, 0, length);
+        return prefix;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().matches("wal-\\d+\\.log"))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
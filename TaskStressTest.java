@@ -0,0 +1,211 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Multi-threaded stress harness for the concurrent TaskManagementSystem core.
+// Usage: java TaskStressTest [threads] [tasksPerThread]
+public class TaskStressTest {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int tasksPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        TaskManagementSystem tms = new TaskManagementSystem();
+        Project shared = tms.createProject("Shared");
+        for (int i = 0; i < threads; i++) {
+            tms.addTeamMember(new TeamMember("member-" + i));
+        }
+        tms.addObserver(task -> { });
+
+        // Phase 1: every thread creates tasks into the same project and a project of its own
+        List<List<Task>> created = runConcurrently(threads, t -> {
+            Project own = tms.createProject("Project " + t);
+            List<Task> tasks = new ArrayList<>(tasksPerThread);
+            for (int i = 0; i < tasksPerThread; i++) {
+                Task task = tms.createTask("Task " + i, "Stress", "2025-01-01");
+                (i % 2 == 0 ? shared : own).add(new TaskItem(task));
+                tasks.add(task);
+            }
+            return tasks;
+        });
+        int total = threads * tasksPerThread;
+        check(tms.getProjects().size() == threads + 1, "projects lost: " + tms.getProjects().size());
+        check(shared.getTasks().size() == total / 2, "children lost: " + shared.getTasks().size());
+        for (List<Task> tasks : created) {
+            for (Task task : tasks) {
+                check(tms.findTaskById(task.getId()) == task, "index lost " + task.getId());
+            }
+        }
+
+        // Phase 2: three threads each move every task once; all must end up Completed
+        List<Task> all = new ArrayList<>(total);
+        created.forEach(all::addAll);
+        runConcurrently(3, t -> {
+            for (Task task : all) {
+                tms.moveTaskToNextState(task);
+            }
+            return null;
+        });
+        for (Task task : all) {
+            check(task.getTaskState() instanceof CompletedState,
+                  "lost transition on " + task.getId() + ": " + task.getTaskState().getDescription());
+        }
+
+        // Phase 3: every member gets each task assigned concurrently
+        List<TeamMember> members = tms.getTeamMembers();
+        runConcurrently(members.size(), t -> {
+            for (Task task : all) {
+                tms.assignTask(task, members.get(t));
+            }
+            return null;
+        });
+        // Each task ends up with exactly one member, and every workload matches its tasks
+        int assigned = 0;
+        for (TeamMember member : members) {
+            int count = tms.getTasksAssignedTo(member).size();
+            check(member.getWorkload().getTotalCount() == count, "workload drift for " + member.getName());
+            check(member.getWorkload().getOpenCount() == 0, "completed tasks counted open for " + member.getName());
+            assigned += count;
+        }
+        check(assigned == total, "lost assignment: " + assigned + " of " + total);
+
+        // Phase 4: new tasks are auto-assigned in batches while other threads move them along
+        List<Task> fresh = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            Task task = tms.createTask("Fresh " + i, "Stress", "2025-01-01");
+            shared.add(new TaskItem(task));
+            fresh.add(task);
+        }
+        int batch = total / threads;
+        runConcurrently(threads, t -> {
+            List<Task> slice = fresh.subList(t * batch, (t + 1) * batch);
+            if (t % 2 == 0) {
+                tms.autoAssignAll(slice);
+            } else {
+                for (Task task : slice) {
+                    tms.moveTaskToNextState(task);
+                }
+                tms.autoAssignAll(slice);
+            }
+            for (Task task : fresh.subList(((t + 1) % threads) * batch, ((t + 1) % threads + 1) * batch)) {
+                tms.moveTaskToNextState(task);
+            }
+            return null;
+        });
+        int open = 0;
+        for (Task task : fresh.subList(0, batch * threads)) {
+            check(task.getAssigneeMember() != null, "not auto-assigned: " + task.getId());
+            if (!(task.getTaskState() instanceof CompletedState)) {
+                open++;
+            }
+        }
+        int countedOpen = 0;
+        int minOpen = Integer.MAX_VALUE;
+        int maxOpen = 0;
+        for (TeamMember member : members) {
+            int memberOpen = member.getWorkload().getOpenCount();
+            countedOpen += memberOpen;
+            minOpen = Math.min(minOpen, memberOpen);
+            maxOpen = Math.max(maxOpen, memberOpen);
+            check(member.getWorkload().getTotalCount() == tms.getTasksAssignedTo(member).size(),
+                  "workload drift for " + member.getName());
+        }
+        check(countedOpen == open, "open counts drifted: " + countedOpen + " counted, " + open + " open");
+
+        // Phase 5: transactions over random tasks in the shared and per-thread projects race
+        // each other; every task must be advanced exactly three times, never more or less
+        List<Task> batched = new ArrayList<>(threads * 200);
+        List<Project> roots = tms.getProjects();
+        for (int i = 0; i < threads * 200; i++) {
+            Task task = tms.createTask("Batched " + i, "Stress", "2025-01-01");
+            roots.get(i % roots.size()).add(new TaskItem(task));
+            batched.add(task);
+        }
+        List<Integer> advanced = runConcurrently(threads, t -> {
+            Random random = new Random(t);
+            int steps = 0;
+            while (batched.stream().anyMatch(task -> !(task.getTaskState() instanceof CompletedState))) {
+                TaskTransaction transaction = tms.newTransaction();
+                for (int i = 0; i < 5; i++) {
+                    Task task = batched.get(random.nextInt(batched.size()));
+                    // The version is read before the state it vouches for
+                    long version = task.getVersion();
+                    if (!(task.getTaskState() instanceof CompletedState)) {
+                        transaction.expectVersion(task, version).moveToNextState(task);
+                    }
+                }
+                if (transaction.commit()) {
+                    steps += transaction.size();
+                }
+            }
+            return steps;
+        });
+        int steps = advanced.stream().mapToInt(Integer::intValue).sum();
+        check(steps == batched.size() * 3, "transactions advanced " + steps + " steps, expected " + batched.size() * 3);
+
+        // Phase 6: a member's template is instantiated into every root project; instances
+        // start unassigned in the initial state and add nothing to the owner's workload
+        TeamMember owner = members.get(0);
+        int ownerTotal = owner.getWorkload().getTotalCount();
+        Task template = owner.createTemplateTask("Weekly report", "Stress", "Every Friday");
+        check(owner.getName().equals(template.getAssignee()), "template not owned by its creator");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Task> instances;
+        try {
+            instances = TemplateInstantiator.instantiate(tms, template, roots, 500, RecurrenceRule.weekly(DayOfWeek.FRIDAY),
+                                                         LocalDate.of(2025, 1, 1), executor);
+        } finally {
+            executor.shutdown();
+        }
+        check(instances.size() == roots.size() * 500, "instances lost: " + instances.size());
+        for (Task instance : instances) {
+            check(instance.getAssignee() == null && instance.getAssigneeMember() == null,
+                  "instance " + instance.getId() + " kept the template's assignee");
+            check(instance.getTaskState() == template.getWorkflow().getInitialState(),
+                  "instance " + instance.getId() + " not in the initial state");
+            check(tms.findTaskById(instance.getId()) == instance, "instance not indexed: " + instance.getId());
+        }
+        check(owner.getWorkload().getTotalCount() == ownerTotal, "instances counted in the owner's workload");
+
+        System.out.println("OK: " + total + " tasks, " + threads + " threads, no lost updates, open per member "
+                           + minOpen + ".." + maxOpen);
+    }
+
+    private interface Work<T> {
+        T run(int thread) throws Exception;
+    }
+
+    private static <T> List<T> runConcurrently(int threads, Work<T> work) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                return work.run(thread);
+            }));
+        }
+        start.countDown();
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get());
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        return results;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Harness for TimingWheel: drives its tick clock by hand across the points where one
+// level wraps into the next and checks that every timer fires exactly on its deadline
+// tick, in deadline order, once, and never after being cancelled.
+// Usage: java TimingWheelTest
+public class TimingWheelTest {
+    private static final int SLOTS = 64;
+
+    public static void main(String[] args) {
+        // Level 0 wraps at 64, level 1 at 4096, level 2 at 262144
+        long[] deadlines = {61, 63, 64, 65, 127, 128, 129, 4095, 4096, 4097, 8191, 262143, 262144, 262147};
+        wraps(60, deadlines, 1);
+        wraps(60, deadlines, 1000);
+        // Starting just short of a level 2 wrap, with deadlines on either side of it
+        wraps(262140, new long[] {262141, 262143, 262144, 262145, 262144 + SLOTS, 262144 + SLOTS * SLOTS}, 1);
+        System.out.println("OK: level wraps");
+        random(new Random(42), 20000, 300000);
+        System.out.println("OK: random deadlines");
+    }
+
+    // Schedules a timer per deadline and advances 'step' ticks at a time past the last one
+    private static void wraps(long start, long[] deadlines, int step) {
+        TimingWheel<Integer> wheel = new TimingWheel<>(start);
+        for (int i = 0; i < deadlines.length; i++) {
+            wheel.schedule(deadlines[i], i);
+        }
+        List<Integer> fired = new ArrayList<>();
+        long end = deadlines[deadlines.length - 1];
+        for (long tick = start; tick < end; ) {
+            tick = Math.min(tick + step, end);
+            wheel.advanceTo(tick, index -> {
+                check(wheel.getCurrentTick() == deadlines[index],
+                      "timer for tick " + deadlines[index] + " fired at " + wheel.getCurrentTick());
+                fired.add(index);
+            });
+        }
+        check(fired.size() == deadlines.length, "fired " + fired.size() + " of " + deadlines.length);
+        for (int i = 0; i < fired.size(); i++) {
+            check(fired.get(i) == i, "timer " + fired.get(i) + " fired out of order");
+        }
+        check(wheel.size() == 0, "wheel still holds " + wheel.size() + " timers");
+    }
+
+    // Random deadlines up to 'span' ticks ahead, every seventh cancelled, and uneven steps;
+    // deadlines already passed when scheduled fire on the next advance
+    private static void random(Random random, int count, int span) {
+        long start = random.nextInt(1 << 20);
+        TimingWheel<Integer> wheel = new TimingWheel<>(start);
+        long[] deadlines = new long[count];
+        List<TimingWheel.Timer<Integer>> timers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            deadlines[i] = start + random.nextInt(span) - (i % 100 == 0 ? 10 : 0);
+            timers.add(wheel.schedule(deadlines[i], i));
+        }
+        boolean[] cancelled = new boolean[count];
+        for (int i = 0; i < count; i += 7) {
+            check(wheel.cancel(timers.get(i)), "could not cancel timer " + i);
+            cancelled[i] = true;
+        }
+        check(!wheel.cancel(timers.get(0)), "cancelled timer 0 twice");
+
+        int[] firings = new int[count];
+        long tick = start;
+        long[] last = {Long.MIN_VALUE};
+        while (tick < start + span) {
+            tick += 1 + random.nextInt(5000);
+            wheel.advanceTo(tick, index -> {
+                long expected = Math.max(deadlines[index], start);
+                check(expected == wheel.getCurrentTick(),
+                      "timer for tick " + deadlines[index] + " fired at " + wheel.getCurrentTick());
+                check(expected >= last[0], "timer " + index + " fired out of order");
+                last[0] = expected;
+                firings[index]++;
+            });
+        }
+        for (int i = 0; i < count; i++) {
+            check(firings[i] == (cancelled[i] ? 0 : 1), "timer " + i + " fired " + firings[i] + " times");
+        }
+        check(wheel.size() == 0, "wheel still holds " + wheel.size() + " timers");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}